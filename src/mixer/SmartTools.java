@@ -35,7 +35,6 @@ public class SmartTools {
     public static final String versionNum = "0.33.0";
     public static final int bufferSize = 2097152;
     public static boolean printVerboseComments = false;
-    public static int NUM_ENTRIES_TO_SKIP_MEDIAN = 0;
 
     public static void main(String[] argv) throws CmdLineParser.UnknownOptionException, CmdLineParser.IllegalOptionValueException {
 
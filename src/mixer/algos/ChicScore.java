@@ -34,6 +34,8 @@ import javastraw.tools.UNIXTools;
 import mixer.clt.CommandLineParserForMixer;
 import mixer.clt.MixerCLT;
 import mixer.utils.BedTools;
+import mixer.utils.matrix.HiCMatrix;
+import mixer.utils.matrix.InterOnlyMatrix;
 import mixer.utils.shuffle.Partition;
 import mixer.utils.shuffle.ShuffleAction;
 import mixer.utils.tracks.SubcompartmentInterval;
@@ -61,7 +63,7 @@ public class ChicScore extends MixerCLT {
 
     // subcompartment lanscape identification via clustering enrichment
     public ChicScore(String name) {
-        super("shuffle [-r resolution] [-k NONE/VC/VC_SQRT/KR/SCALE] [-w window] [--verbose] " +
+        super("shuffle [-r resolution] [-k NONE/VC/VC_SQRT/KR/SCALE] [-w window] [--adaptive-rounds] [--summary-chic] [--verbose] " +
                 "<file.hic> <subcompartment.bed(s)> <outfolder> <prefix>");
         useOriginal = name.contains("original");
     }
@@ -89,6 +91,8 @@ public class ChicScore extends MixerCLT {
         }
 
         updateGeneratorSeed(mixerParser, generator);
+        ShuffleAction.useAdaptiveRounds = mixerParser.getAdaptiveRoundsOption();
+        ShuffleAction.useSummaryStatistics = mixerParser.getSummaryChicOption();
 
         int minSize = mixerParser.getWindowSizeOption(1600000 / resolution);
         if (minSize > 1) {
@@ -161,13 +165,33 @@ public class ChicScore extends MixerCLT {
         }
         */
 
-        for (int i = 0; i < referenceBedFiles.length; i++) {
-            System.out.println("Processing " + prefix[i]);
-            File newFolder = new File(outputDirectory, "shuffle_" + prefix[i]);
-            UNIXTools.makeDir(newFolder);
-            ShuffleAction matrix = new ShuffleAction(ds, norm, resolution, compressionFactor, mapTypes);
-            matrix.runInterAnalysis(subcompartments.get(i), newFolder, generator);
-            matrix.savePlotsAndResults(newFolder, prefix[i]);
+        int numFiles = referenceBedFiles.length;
+        File[] folders = new File[numFiles];
+        ShuffleAction[] actions = new ShuffleAction[numFiles];
+        long[][] seeds = new long[numFiles][mapTypes.length];
+        for (int i = 0; i < numFiles; i++) {
+            folders[i] = new File(outputDirectory, "shuffle_" + prefix[i]);
+            UNIXTools.makeDir(folders[i]);
+            actions[i] = new ShuffleAction(ds, norm, resolution, compressionFactor, mapTypes);
+            for (int y = 0; y < mapTypes.length; y++) {
+                seeds[i][y] = generator.nextLong();
+            }
+        }
+
+        // each partition's inter matrix is read once, scored against every file, then released
+        for (int y = 0; y < mapTypes.length; y++) {
+            HiCMatrix interMatrix = InterOnlyMatrix.getMatrix(ds, norm, resolution, mapTypes[y]);
+            for (int i = 0; i < numFiles; i++) {
+                System.out.println("Processing " + prefix[i] + " " + mapTypes[y]);
+                actions[i].runInterAnalysis(interMatrix, y, subcompartments.get(i), folders[i],
+                        new Random(seeds[i][y]));
+            }
+            interMatrix = null;
+        }
+
+        for (int i = 0; i < numFiles; i++) {
+            actions[i].calculateRatios();
+            actions[i].savePlotsAndResults(folders[i], prefix[i]);
         }
         System.out.println("Shuffle complete");
     }
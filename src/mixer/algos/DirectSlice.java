@@ -35,18 +35,17 @@ import javastraw.tools.MatrixTools;
 import mixer.clt.CommandLineParserForMixer;
 import mixer.clt.MixerCLT;
 import mixer.utils.BedTools;
-import mixer.utils.cleaning.SimilarityMatrixTools;
+import mixer.utils.cleaning.DistanceMatrixWriter;
+import mixer.utils.cleaning.KNearestNeighborGraph;
 import mixer.utils.common.FloatMatrixTools;
 import mixer.utils.drive.*;
 import mixer.utils.similaritymeasures.RobustCosineSimilarity;
 import mixer.utils.similaritymeasures.RobustManhattanDistance;
+import mixer.utils.similaritymeasures.SimilarityMetric;
 import mixer.utils.tracks.SubcompartmentInterval;
 import mixer.utils.translocations.TranslocationSet;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.File;
 
 /**
  * experimental code
@@ -59,10 +58,11 @@ public class DirectSlice extends MixerCLT {
     private ChromosomeHandler handler;
     private File parentDirectory;
     private GenomeWide1DList<SubcompartmentInterval> clusters;
+    private int knn = 0;
 
     // subcompartment landscape identification via compressing enrichments
     public DirectSlice(String command) {
-        super("direct-slice [-r resolution] [--verbose] [-k INTER_NORM] " +
+        super("direct-slice [-r resolution] [--knn K] [--verbose] [-k INTER_NORM] " +
                 "<file.hic> <input.bed> <outfolder>");
         //"<-k NONE/VC/VC_SQRT/KR/SCALE> [--compare reference.bed] [--has-translocation] " +
     }
@@ -84,34 +84,7 @@ public class DirectSlice extends MixerCLT {
         clusters = BedTools.loadBedFileAtResolution(handler, args[2], resolution);
 
         parentDirectory = HiCFileTools.createValidDirectory(args[3]);
-    }
-
-    public static void saveMatrixText(String filename, float[][] matrix) {
-        Writer writer = null;
-
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(filename)), StandardCharsets.UTF_8));
-            for (float[] row : matrix) {
-                for (int k = 0; k < row.length; k++) {
-                    writer.write("" + row[k]);
-                    if (k == row.length - 1) {
-                        writer.write("\n");
-                    } else {
-                        writer.write(" ");
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        knn = mixerParser.getKnnOption(0);
     }
 
     @Override
@@ -143,36 +116,27 @@ public class DirectSlice extends MixerCLT {
         System.out.print("indices size " + result.getGenomeIndices().length + " x ");
         System.out.println(result.getGenomeIndices()[0].length);
 
-        float[][] dist = SimilarityMatrixTools.getSymmetricDistanceMatrix(result.matrix,
-                RobustManhattanDistance.SINGLETON);
-        export("slice.l1.distance.matrix", dist);
-
-        dist = SimilarityMatrixTools.getSymmetricDistanceMatrix(result.matrix,
-                RobustCosineSimilarity.SINGLETON);
-        export("slice.cosine.distance.matrix", dist);
+        if (knn > 0) {
+            exportKnn("slice.l1.knn", result.matrix, RobustManhattanDistance.SINGLETON, false);
+            exportKnn("slice.cosine.knn", result.matrix, RobustCosineSimilarity.SINGLETON, true);
+        } else {
+            export("slice.l1.distance.matrix", result.matrix, RobustManhattanDistance.SINGLETON);
+            export("slice.cosine.distance.matrix", result.matrix, RobustCosineSimilarity.SINGLETON);
+        }
 
         /*
-        dist = SimilarityMatrixTools.getSymmetricDistanceMatrix(result.matrix,
-                RobustEuclideanDistance.SINGLETON);
-        export("slice.l2.distance.matrix", dist);
-
-        dist = SimilarityMatrixTools.getSymmetricDistanceMatrix(result.matrix,
-                RobustCorrelationSimilarity.SINGLETON);
-        export("slice.corr.distance.matrix", dist);
+        export("slice.l2.distance.matrix", result.matrix, RobustEuclideanDistance.SINGLETON);
+        export("slice.corr.distance.matrix", result.matrix, RobustCorrelationSimilarity.SINGLETON);
         */
 
         System.out.println("\nDirect SLICE Compression complete");
     }
 
-    private void export(String name, float[][] dist) {
-        long matrixSize = dist.length;
-        matrixSize *= dist.length;
-        if (matrixSize < Integer.MAX_VALUE && matrixSize > 0) {
-            String path = new File(parentDirectory, name + ".npy").getAbsolutePath();
-            MatrixTools.saveMatrixTextNumpy(path, dist);
-        } else {
-            String path = new File(parentDirectory, name + ".txt").getAbsolutePath();
-            saveMatrixText(path, dist);
-        }
+    private void export(String name, float[][] matrix, SimilarityMetric metric) {
+        DistanceMatrixWriter.writeNpy(matrix, metric, new File(parentDirectory, name + ".npy"));
+    }
+
+    private void exportKnn(String name, float[][] matrix, SimilarityMetric metric, boolean isSimilarity) {
+        new KNearestNeighborGraph(matrix, metric, knn, isSimilarity).export(parentDirectory, name);
     }
 }
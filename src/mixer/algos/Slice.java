@@ -42,9 +42,13 @@ import mixer.utils.drive.FinalMatrix;
 import mixer.utils.drive.Mappings;
 import mixer.utils.drive.MatrixAndWeight;
 import mixer.utils.drive.MatrixBuilder;
+import mixer.utils.eig.EigenvectorTools;
 import mixer.utils.intra.IndexOrderer;
 import mixer.utils.kmeans.ClusteringMagic;
+import mixer.utils.kmeans.GenomeWideKmeansRunner;
+import mixer.utils.kmeans.RestartPolicy;
 import mixer.utils.refinement.InternalShuffle;
+import mixer.utils.shuffle.ShuffleAction;
 import mixer.utils.tracks.SubcompartmentInterval;
 import mixer.utils.translocations.SimpleTranslocationFinder;
 import mixer.utils.translocations.TranslocationSet;
@@ -68,11 +72,13 @@ public class Slice extends MixerCLT {
     private NormalizationType[] norms;
     boolean useExpandedIntraOE = true;
     boolean includeEigenvector = false;
+    private int numPCAComponents = 0;
 
     // subcompartment landscape identification via compressing enrichments
     public Slice() {
-        super("slice [--eig] [-r resolution] [--post-norm] [--skip-check] [--verbose] [-k INTRA_NORM,INTER_NORM] " +
-                "<file.hic> <K0,KF> <outfolder>\n" +
+        super("slice [--eig] [--eig-components num_components] [--pca num_components] [--quantize | --mini-batch batch_size] [--restarts MIN,MAX] [--restart-patience N] " +
+                "[--restart-budget seconds] [--adaptive-rounds] [--summary-chic] [-r resolution] [--post-norm] [--skip-check] [--verbose] " +
+                "[-k INTRA_NORM,INTER_NORM] <file.hic> <K0,KF> <outfolder>\n" +
                 "   K0 - minimum number of clusters\n" +
                 "   KF - maximum number of clusters");
         //"<-k NONE/VC/VC_SQRT/KR/SCALE> [--compare reference.bed] [--has-translocation] " +
@@ -101,11 +107,19 @@ public class Slice extends MixerCLT {
 
         resolution = updateResolution(mixerParser, resolution);
         includeEigenvector = mixerParser.getIncludeEigenvectorOption();
-        ds = HiCFileTools.extractDatasetForCLT(args[1], true, false, resolution > 100);
-
-        if (resolution < 25000) {
-            SmartTools.NUM_ENTRIES_TO_SKIP_MEDIAN = 30000 / resolution;
+        EigenvectorTools.numComponents = mixerParser.getEigComponentsOption(EigenvectorTools.numComponents);
+        numPCAComponents = mixerParser.getPCAComponentsOption(0);
+        GenomeWideKmeansRunner.miniBatchSize = mixerParser.getMiniBatchSizeOption(0);
+        GenomeWideKmeansRunner.useQuantized = mixerParser.getQuantizeOption();
+        if (GenomeWideKmeansRunner.miniBatchSize > 0 && GenomeWideKmeansRunner.useQuantized) {
+            System.err.println("--mini-batch and --quantize cannot be used together; mini-batch kmeans " +
+                    "runs on the float matrix");
+            printUsageAndExit(5);
         }
+        ShuffleAction.useAdaptiveRounds = mixerParser.getAdaptiveRoundsOption();
+        ShuffleAction.useSummaryStatistics = mixerParser.getSummaryChicOption();
+        updateRestartPolicy(mixerParser);
+        ds = HiCFileTools.extractDatasetForCLT(args[1], true, false, resolution > 100);
 
         try {
             String[] valString = args[2].split(",");
@@ -121,6 +135,24 @@ public class Slice extends MixerCLT {
         updateGeneratorSeed(mixerParser, generator);
     }
 
+    private void updateRestartPolicy(CommandLineParserForMixer mixerParser) {
+        List<Integer> restarts = mixerParser.getRestartsOption();
+        if (restarts != null) {
+            RestartPolicy.minRestarts = restarts.get(0);
+            RestartPolicy.maxRestarts = restarts.get(restarts.size() - 1);
+        }
+        int patience = mixerParser.getRestartPatienceOption(0);
+        if (patience > 0) {
+            RestartPolicy.patience = patience;
+            if (restarts == null) {
+                // a patience alone opts into early stopping with the default range
+                RestartPolicy.minRestarts = Math.min(RestartPolicy.EARLY_STOP_MIN_RESTARTS,
+                        RestartPolicy.maxRestarts);
+            }
+        }
+        RestartPolicy.timeBudgetMillis = 1000L * mixerParser.getRestartBudgetOption(0);
+    }
+
     @Override
     public void run() {
         ChromosomeHandler handler = ds.getChromosomeHandler();
@@ -190,6 +222,14 @@ public class Slice extends MixerCLT {
             if (SmartTools.printVerboseComments) {
                 slice.export(tempOutputDirectory, stem);
             }
+            if (numPCAComponents > 0 && numPCAComponents < slice.getNumCols()) {
+                // weights must be applied before the columns are mixed together
+                if (scaleColWeights) {
+                    slice.inPlaceScaleSqrtWeightCol();
+                    scaleColWeights = false;
+                }
+                slice.compressColumns(numPCAComponents, generator.nextLong());
+            }
             ClusteringMagic clustering = new ClusteringMagic(slice, tempOutputDirectory,
                     handler, generator.nextLong());
             clustering.extractFinalGWSubcompartments(stem, bedFiles, scaleColWeights, includeEigenvector);
@@ -55,6 +55,16 @@ public class CommandLineParserForMixer extends CmdLineParser {
     private final Option windowOption = addIntegerOption('w', "window");
     private final Option skipIntraOption = addBooleanOption("skip-intra");
     private final Option includeEigenvectorOption = addBooleanOption("eig");
+    private final Option eigComponentsOption = addIntegerOption("eig-components");
+    private final Option miniBatchOption = addIntegerOption("mini-batch");
+    private final Option restartsOption = addStringOption("restarts");
+    private final Option restartPatienceOption = addIntegerOption("restart-patience");
+    private final Option restartBudgetOption = addIntegerOption("restart-budget");
+    private final Option pcaOption = addIntegerOption("pca");
+    private final Option quantizeOption = addBooleanOption("quantize");
+    private final Option knnOption = addIntegerOption("knn");
+    private final Option adaptiveRoundsOption = addBooleanOption("adaptive-rounds");
+    private final Option summaryChicOption = addBooleanOption("summary-chic");
 
 
     public CommandLineParserForMixer() {
@@ -198,4 +208,44 @@ public class CommandLineParserForMixer extends CmdLineParser {
     public boolean getIncludeEigenvectorOption() {
         return optionToBoolean(includeEigenvectorOption);
     }
+
+    public int getMiniBatchSizeOption(int defaultNum) {
+        return optionToInt(miniBatchOption, defaultNum);
+    }
+
+    public List<Integer> getRestartsOption() {
+        return optionToIntegerList(restartsOption);
+    }
+
+    public int getRestartPatienceOption(int defaultNum) {
+        return optionToInt(restartPatienceOption, defaultNum);
+    }
+
+    public int getRestartBudgetOption(int defaultNum) {
+        return optionToInt(restartBudgetOption, defaultNum);
+    }
+
+    public int getPCAComponentsOption(int defaultNum) {
+        return optionToInt(pcaOption, defaultNum);
+    }
+
+    public boolean getQuantizeOption() {
+        return optionToBoolean(quantizeOption);
+    }
+
+    public int getKnnOption(int defaultNum) {
+        return optionToInt(knnOption, defaultNum);
+    }
+
+    public int getEigComponentsOption(int defaultNum) {
+        return optionToInt(eigComponentsOption, defaultNum);
+    }
+
+    public boolean getAdaptiveRoundsOption() {
+        return optionToBoolean(adaptiveRoundsOption);
+    }
+
+    public boolean getSummaryChicOption() {
+        return optionToBoolean(summaryChicOption);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.cleaning;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.utils.similaritymeasures.RobustCorrelationSimilarity;
+import mixer.utils.similaritymeasures.RobustCosineSimilarity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cosine / correlation similarity matrices for mostly non-NaN rows.
+ * NaNs are zeroed so all pairwise dot products come from one blocked X * X^T pass; the
+ * per-pair norms, sums and counts over the jointly non-NaN entries are then recovered by
+ * subtracting the other row's NaN positions, so the result matches the robust metrics.
+ */
+public class DenseSimilarityEngine {
+
+    public static float MAX_NAN_DENSITY = 0.1f;
+    private final float[][] original;
+    private final float[][] zeroed;
+    private final int[][] nanIndices;
+    private final double[] sums;
+    private final double[] squares;
+    private final boolean isCorrelation;
+
+    private DenseSimilarityEngine(float[][] matrix, boolean isCorrelation) {
+        this.original = matrix;
+        this.isCorrelation = isCorrelation;
+        int n = matrix.length;
+        zeroed = new float[n][];
+        nanIndices = new int[n][];
+        sums = new double[n];
+        squares = new double[n];
+        AtomicInteger currRowIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int i = currRowIndex.getAndIncrement();
+            while (i < n) {
+                prepareRow(i);
+                i = currRowIndex.getAndIncrement();
+            }
+        });
+    }
+
+    public static boolean isDenseEnough(float[][] matrix) {
+        if (matrix.length < 1) return false;
+        long numNans = 0;
+        for (float[] row : matrix) {
+            for (float val : row) {
+                if (Float.isNaN(val)) {
+                    numNans++;
+                }
+            }
+        }
+        return numNans <= MAX_NAN_DENSITY * matrix.length * (double) matrix[0].length;
+    }
+
+    public static SymmetricMatrix getCosineMatrix(float[][] matrix) {
+        return new DenseSimilarityEngine(matrix, false).run();
+    }
+
+    public static SymmetricMatrix getCorrelationMatrix(float[][] matrix) {
+        return new DenseSimilarityEngine(matrix, true).run();
+    }
+
+    /**
+     * correlation is unchanged by shifting a row, so rows are centered first
+     * to keep the single-pass sums well conditioned
+     */
+    private void prepareRow(int i) {
+        float[] row = original[i];
+        int numNans = 0;
+        double mean = 0;
+        for (float val : row) {
+            if (Float.isNaN(val)) {
+                numNans++;
+            } else {
+                mean += val;
+            }
+        }
+        mean = isCorrelation && numNans < row.length ? mean / (row.length - numNans) : 0;
+
+        float[] z = new float[row.length];
+        int[] nans = new int[numNans];
+        int counter = 0;
+        double sum = 0, square = 0;
+        for (int k = 0; k < row.length; k++) {
+            if (Float.isNaN(row[k])) {
+                nans[counter++] = k;
+            } else {
+                z[k] = (float) (row[k] - mean);
+                sum += z[k];
+                square += (double) z[k] * z[k];
+            }
+        }
+        zeroed[i] = z;
+        nanIndices[i] = nans;
+        sums[i] = sum;
+        squares[i] = square;
+    }
+
+    private SymmetricMatrix run() {
+        int n = zeroed.length;
+        SymmetricMatrix result = new SymmetricMatrix(n);
+        TilePairs tiles = new TilePairs(n, zeroed[0].length);
+
+        AtomicLong currPairIndex = new AtomicLong(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            double[] dots = new double[4];
+            long p = currPairIndex.getAndIncrement();
+            while (p < tiles.numPairs) {
+                int ti = tiles.getRowTile(p);
+                int tj = tiles.getColTile(p, ti);
+                int iEnd = tiles.getEnd(ti);
+                int jEnd = tiles.getEnd(tj);
+                for (int i = tiles.getStart(ti); i < iEnd; i++) {
+                    float[] upperRow = result.getUpperRow(i);
+                    int j = Math.max(i, tiles.getStart(tj));
+                    for (; j < jEnd - 3; j += 4) {
+                        dot4(zeroed[i], zeroed[j], zeroed[j + 1], zeroed[j + 2], zeroed[j + 3], dots);
+                        for (int q = 0; q < 4; q++) {
+                            upperRow[j + q - i] = getSimilarity(i, j + q, dots[q]);
+                        }
+                    }
+                    for (; j < jEnd; j++) {
+                        upperRow[j - i] = getSimilarity(i, j, dot(zeroed[i], zeroed[j]));
+                    }
+                }
+                p = currPairIndex.getAndIncrement();
+            }
+        });
+        return result;
+    }
+
+    private float getSimilarity(int i, int j, double dotProduct) {
+        float[] xi = original[i], xj = original[j];
+        float[] zi = zeroed[i], zj = zeroed[j];
+        double sumI = sums[i], sumJ = sums[j];
+        double squareI = squares[i], squareJ = squares[j];
+        int numMissing = nanIndices[i].length;
+        for (int k : nanIndices[j]) {
+            if (!Float.isNaN(xi[k])) {
+                sumI -= zi[k];
+                squareI -= (double) zi[k] * zi[k];
+                numMissing++;
+            }
+        }
+        for (int k : nanIndices[i]) {
+            sumJ -= zj[k];
+            squareJ -= (double) zj[k] * zj[k];
+        }
+
+        if (isCorrelation) {
+            return RobustCorrelationSimilarity.fromSums(xi.length - numMissing, sumI, sumJ,
+                    squareI, squareJ, dotProduct);
+        }
+        // the subtractions can leave a tiny negative norm when no entries overlap
+        return RobustCosineSimilarity.fromSums(dotProduct, Math.max(squareI, 0) + 1e-100,
+                Math.max(squareJ, 0) + 1e-100);
+    }
+
+    private static double dot(float[] x, float[] y) {
+        double result = 0;
+        for (int k = 0; k < x.length; k++) {
+            result += x[k] * y[k];
+        }
+        return result;
+    }
+
+    private static void dot4(float[] x, float[] y0, float[] y1, float[] y2, float[] y3, double[] out) {
+        double d0 = 0, d1 = 0, d2 = 0, d3 = 0;
+        for (int k = 0; k < x.length; k++) {
+            final float xk = x[k];
+            d0 += xk * y0[k];
+            d1 += xk * y1[k];
+            d2 += xk * y2[k];
+            d3 += xk * y3[k];
+        }
+        out[0] = d0;
+        out[1] = d1;
+        out[2] = d2;
+        out[3] = d3;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.cleaning;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.utils.similaritymeasures.SimilarityMetric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the all-vs-all distance matrix of the rows straight to a float32 .npy file.
+ * Each thread fills a stripe of whole rows (column tiles at a time, so the column rows stay
+ * in cache) and writes it with one sequential call; memory stays at one stripe per thread
+ * no matter how many entries the matrix has. Entries are computed as distance(row min(i, j),
+ * row max(i, j)), so the file is exactly symmetric.
+ */
+public class DistanceMatrixWriter {
+
+    private static final int HEADER_ALIGNMENT = 64;
+    private static final int MAX_STRIPE_BYTES = 1 << 24;
+
+    public static void writeNpy(float[][] matrix, SimilarityMetric metric, File file) {
+        int n = matrix.length;
+        if (n < 1) return;
+        TilePairs tiles = new TilePairs(n, matrix[0].length);
+        int stripeRows = (int) Math.max(1, Math.min(tiles.tileSize, MAX_STRIPE_BYTES / (4L * n)));
+        int numStripes = (n + stripeRows - 1) / stripeRows;
+        AtomicInteger currStripe = new AtomicInteger(0);
+        AtomicInteger numStripesDone = new AtomicInteger(0);
+        AtomicBoolean hasFailed = new AtomicBoolean(false);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long headerLength = writeHeader(channel, "<f4", n, n);
+
+            ParallelizationTools.launchParallelizedCode(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * stripeRows * n).order(ByteOrder.LITTLE_ENDIAN);
+                int s = currStripe.getAndIncrement();
+                while (s < numStripes && !hasFailed.get()) {
+                    int iStart = s * stripeRows;
+                    int iEnd = Math.min(n, iStart + stripeRows);
+                    try {
+                        buffer.clear();
+                        fillStripe(matrix, metric, tiles, iStart, iEnd, buffer.asFloatBuffer());
+                        buffer.position(4 * (iEnd - iStart) * n);
+                        write(channel, buffer, headerLength + 4L * iStart * n);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        hasFailed.set(true);
+                    }
+                    int done = numStripesDone.incrementAndGet();
+                    int percent = (int) (100L * done / numStripes);
+                    if (percent / 10 > (int) (100L * (done - 1) / numStripes) / 10) {
+                        System.out.println(file.getName() + ": " + percent + "% written");
+                    }
+                    s = currStripe.getAndIncrement();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (hasFailed.get()) {
+            System.err.println("Unable to write " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * rows iStart..iEnd-1 against every row, in row-major order
+     */
+    private static void fillStripe(float[][] matrix, SimilarityMetric metric, TilePairs tiles,
+                                   int iStart, int iEnd, FloatBuffer stripe) {
+        int n = matrix.length;
+        for (int tj = 0; tj < tiles.numTiles; tj++) {
+            int jStart = tiles.getStart(tj), jEnd = tiles.getEnd(tj);
+            for (int i = iStart; i < iEnd; i++) {
+                int offset = (i - iStart) * n;
+                for (int j = jStart; j < jEnd; j++) {
+                    float dist = i <= j ? metric.distance(matrix[i], matrix[j])
+                            : metric.distance(matrix[j], matrix[i]);
+                    stripe.put(offset + j, dist);
+                }
+            }
+        }
+    }
+
+    static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * npy format 1.0 header for a C-order array
+     *
+     * @param descr e.g. '<f4' or '<i4'
+     * @return header length in bytes
+     */
+    static long writeHeader(FileChannel channel, String descr, long... shape) throws IOException {
+        StringBuilder shapeString = new StringBuilder();
+        for (long dim : shape) {
+            shapeString.append(dim).append(", ");
+        }
+        int end = shape.length > 1 ? shapeString.length() - 2 : shapeString.length() - 1;
+        StringBuilder dict = new StringBuilder("{'descr': '" + descr + "', 'fortran_order': False, 'shape': ("
+                + shapeString.substring(0, end) + "), }");
+        int preambleLength = 10;
+        while ((preambleLength + dict.length() + 1) % HEADER_ALIGNMENT != 0) {
+            dict.append(' ');
+        }
+        dict.append('\n');
+        byte[] dictBytes = dict.toString().getBytes(StandardCharsets.US_ASCII);
+
+        ByteBuffer header = ByteBuffer.allocate(preambleLength + dictBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        header.put((byte) 1).put((byte) 0);
+        header.putShort((short) dictBytes.length);
+        header.put(dictBytes);
+        write(channel, header, 0);
+        return header.capacity();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.cleaning;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.utils.similaritymeasures.SimilarityMetric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The k nearest rows of every row, kept as a sparse graph instead of an n x n matrix.
+ * Each task takes one block of rows, streams every block of rows past it, and keeps a
+ * bounded heap per row; memory is O(n * k). For similarities (e.g. cosine) the
+ * largest values count as nearest.
+ */
+public class KNearestNeighborGraph {
+
+    private static final int WRITE_CHUNK = 1 << 16;
+    // largest array the JVMs reliably allocate; every slot offset i * k is below it as well
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private final int k;
+    private final int[] numNeighbors;
+    private final int[] indices;
+    private final float[] values;
+
+    public KNearestNeighborGraph(float[][] matrix, SimilarityMetric metric, int k, boolean isSimilarity) {
+        int n = matrix.length;
+        this.k = Math.min(k, Math.max(n - 1, 0));
+        long numSlots = (long) n * this.k;
+        if (numSlots > MAX_ARRAY_SIZE) {
+            throw new RuntimeException("kNN graph with " + n + " rows and k = " + this.k + " needs "
+                    + numSlots + " slots, more than a Java array can hold; use a smaller k");
+        }
+        numNeighbors = new int[n];
+        indices = new int[(int) numSlots];
+        values = new float[(int) numSlots];
+        if (n < 1 || this.k < 1) return;
+
+        TilePairs tiles = new TilePairs(n, matrix[0].length);
+        AtomicInteger currTile = new AtomicInteger(0);
+        AtomicInteger numTilesDone = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int ti = currTile.getAndIncrement();
+            while (ti < tiles.numTiles) {
+                int iStart = tiles.getStart(ti), iEnd = tiles.getEnd(ti);
+                for (int tj = 0; tj < tiles.numTiles; tj++) {
+                    int jEnd = tiles.getEnd(tj);
+                    for (int i = iStart; i < iEnd; i++) {
+                        for (int j = tiles.getStart(tj); j < jEnd; j++) {
+                            if (i != j) {
+                                float dist = metric.distance(matrix[i], matrix[j]);
+                                if (!Float.isNaN(dist)) {
+                                    offer(i, j, isSimilarity ? -dist : dist);
+                                }
+                            }
+                        }
+                    }
+                }
+                for (int i = iStart; i < iEnd; i++) {
+                    sortHeap(i);
+                    if (isSimilarity) {
+                        for (int q = i * this.k; q < i * this.k + numNeighbors[i]; q++) {
+                            values[q] = -values[q];
+                        }
+                    }
+                }
+                int done = numTilesDone.incrementAndGet();
+                int percent = (int) (100L * done / tiles.numTiles);
+                if (percent / 10 > (int) (100L * (done - 1) / tiles.numTiles) / 10) {
+                    System.out.println("kNN graph: " + percent + "% of rows done");
+                }
+                ti = currTile.getAndIncrement();
+            }
+        });
+    }
+
+    /**
+     * max-heap on values (row i's slots), keeping the k smallest keys
+     */
+    private void offer(int i, int j, float key) {
+        int offset = i * k;
+        int size = numNeighbors[i];
+        if (size < k) {
+            int pos = size;
+            while (pos > 0) {
+                int parent = (pos - 1) / 2;
+                if (values[offset + parent] >= key) break;
+                values[offset + pos] = values[offset + parent];
+                indices[offset + pos] = indices[offset + parent];
+                pos = parent;
+            }
+            values[offset + pos] = key;
+            indices[offset + pos] = j;
+            numNeighbors[i] = size + 1;
+        } else if (key < values[offset]) {
+            siftDown(offset, k, key, j);
+        }
+    }
+
+    private void siftDown(int offset, int size, float key, int index) {
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) break;
+            if (child + 1 < size && values[offset + child + 1] > values[offset + child]) child++;
+            if (values[offset + child] <= key) break;
+            values[offset + pos] = values[offset + child];
+            indices[offset + pos] = indices[offset + child];
+            pos = child;
+        }
+        values[offset + pos] = key;
+        indices[offset + pos] = index;
+    }
+
+    /**
+     * heap sort in place, leaving row i's neighbors nearest first
+     */
+    private void sortHeap(int i) {
+        int offset = i * k;
+        for (int size = numNeighbors[i] - 1; size > 0; size--) {
+            float maxKey = values[offset];
+            int maxIndex = indices[offset];
+            siftDown(offset, size, values[offset + size], indices[offset + size]);
+            values[offset + size] = maxKey;
+            indices[offset + size] = maxIndex;
+        }
+    }
+
+    /**
+     * CSR arrays as .npy: prefix.indptr (int64, n + 1), prefix.indices (int32) and
+     * prefix.distances (float32), neighbors of each row nearest first
+     */
+    public void export(File directory, String prefix) {
+        long[] indptr = new long[numNeighbors.length + 1];
+        for (int i = 0; i < numNeighbors.length; i++) {
+            indptr[i + 1] = indptr[i] + numNeighbors[i];
+        }
+        try {
+            writeIndptr(new File(directory, prefix + ".indptr.npy"), indptr);
+            writeRows(new File(directory, prefix + ".indices.npy"), "<i4", indptr, true);
+            writeRows(new File(directory, prefix + ".distances.npy"), "<f4", indptr, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeIndptr(File file, long[] indptr) throws IOException {
+        try (FileChannel channel = open(file)) {
+            long position = DistanceMatrixWriter.writeHeader(channel, "<i8", indptr.length);
+            ByteBuffer buffer = ByteBuffer.allocate(8 * WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+            for (long val : indptr) {
+                if (!buffer.hasRemaining()) {
+                    position += flush(channel, buffer, position);
+                }
+                buffer.putLong(val);
+            }
+            flush(channel, buffer, position);
+        }
+    }
+
+    private void writeRows(File file, String descr, long[] indptr, boolean writeIndices) throws IOException {
+        try (FileChannel channel = open(file)) {
+            long position = DistanceMatrixWriter.writeHeader(channel, descr, indptr[indptr.length - 1]);
+            ByteBuffer buffer = ByteBuffer.allocate(4 * WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < numNeighbors.length; i++) {
+                for (int q = i * k; q < i * k + numNeighbors[i]; q++) {
+                    if (!buffer.hasRemaining()) {
+                        position += flush(channel, buffer, position);
+                    }
+                    if (writeIndices) {
+                        buffer.putInt(indices[q]);
+                    } else {
+                        buffer.putFloat(values[q]);
+                    }
+                }
+            }
+            flush(channel, buffer, position);
+        }
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.position();
+        DistanceMatrixWriter.write(channel, buffer, position);
+        buffer.clear();
+        return length;
+    }
+}
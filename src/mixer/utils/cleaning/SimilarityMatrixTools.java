@@ -35,18 +35,10 @@ import mixer.utils.similaritymeasures.SimilarityMetric;
 
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SimilarityMatrixTools {
 
-    public static float[][] getNonNanSimilarityMatrix(float[][] matrix, SimilarityMetric metric,
-                                                      int numPerCentroid, long seed) {
-        if ((!metric.isSymmetric()) || numPerCentroid > 1) {
-            return getAsymmetricMatrix(matrix, new SimilarityMetric[]{metric},
-                    matrix.length / numPerCentroid, seed);
-        }
-
-        return getSymmetricDistanceMatrix(matrix, metric);
-    }
 
     public static float[][] getCompressedCosineSimilarityMatrix(float[][] matrix,
                                                                 int numCentroids, long seed) {
@@ -90,13 +82,12 @@ public class SimilarityMatrixTools {
         System.out.println("... generating sym matrix");
         AtomicInteger currRowIndex = new AtomicInteger(0);
         ParallelizationTools.launchParallelizedCode(() -> {
+            float[] out = new float[numCentroids];
             int i = currRowIndex.getAndIncrement();
             while (i < matrix.length) {
-                for (int j = 0; j < numCentroids; j++) {
-                    for (int z = 0; z < metrics.length; z++) {
-                        int offset = z * numCentroids;
-                        result[i][j + offset] = metrics[z].distance(centroids[j], matrix[i]);
-                    }
+                for (int z = 0; z < metrics.length; z++) {
+                    metrics[z].distances(matrix[i], centroids, out);
+                    System.arraycopy(out, 0, result[i], z * numCentroids, numCentroids);
                 }
                 i = currRowIndex.getAndIncrement();
             }
@@ -105,57 +96,67 @@ public class SimilarityMatrixTools {
         return result;
     }
 
-    public static float[][] getSymmetricDistanceMatrix(float[][] matrix, SimilarityMetric metric) {
-        float[][] result = new float[matrix.length][matrix.length]; // *2
+    public static SymmetricMatrix getPackedSymmetricDistanceMatrix(float[][] matrix, SimilarityMetric metric) {
         System.out.println(" .Getting Distance Matrix. ");
-        AtomicInteger currRowIndex = new AtomicInteger(0);
-        ParallelizationTools.launchParallelizedCode(() -> {
-            int i = currRowIndex.getAndIncrement();
-            while (i < matrix.length) {
-                for (int j = i; j < matrix.length; j++) {
-                    result[i][j] = metric.distance(matrix[i], matrix[j]);
-                    result[j][i] = result[i][j];
-                }
-                if (i % 100 == 0) System.out.print(".");
-                i = currRowIndex.getAndIncrement();
-            }
-        });
+        boolean isCosine = metric == RobustCosineSimilarity.SINGLETON;
+        if ((isCosine || metric == RobustCorrelationSimilarity.SINGLETON)
+                && DenseSimilarityEngine.isDenseEnough(matrix)) {
+            return isCosine ? DenseSimilarityEngine.getCosineMatrix(matrix)
+                    : DenseSimilarityEngine.getCorrelationMatrix(matrix);
+        }
+        SymmetricMatrix result = new SymmetricMatrix(matrix.length);
+        fillTiles(matrix, metric, result, null, 0);
         return result;
     }
 
-    public static float[][] getSymmNonNanSimilarityMatrixWithMask(float[][] initialMatrix,
+    public static SymmetricMatrix getSymmNonNanSimilarityMatrixWithMask(float[][] initialMatrix,
                                                                   SimilarityMetric metric,
                                                                   int[] newIndexOrderAssignments, int checkVal) {
 
-        float[][] result = new float[initialMatrix.length][initialMatrix.length];
-        for (float[] row : result) {
-            Arrays.fill(row, Float.NaN);
-        }
-
-        int numCPUThreads = Runtime.getRuntime().availableProcessors();
+        SymmetricMatrix result = new SymmetricMatrix(initialMatrix.length);
+        result.fill(Float.NaN);
 
         RobustCorrelationSimilarity.USE_ARC = true;
+        fillTiles(initialMatrix, metric, result, newIndexOrderAssignments, checkVal);
+        RobustCorrelationSimilarity.USE_ARC = false;
 
-        AtomicInteger currRowIndex = new AtomicInteger(0);
+        return result;
+    }
+
+    /**
+     * Splits the rows into blocks small enough that two of them stay in L2, and hands out the
+     * (blockI <= blockJ) pairs to the threads; writes only touch the upper rows of blockI.
+     * With a mask, rows with assignments >= checkVal and the diagonal are skipped.
+     */
+    private static void fillTiles(float[][] matrix, SimilarityMetric metric, SymmetricMatrix result,
+                                  int[] assignments, int checkVal) {
+        int n = matrix.length;
+        if (n < 1) return;
+        TilePairs tiles = new TilePairs(n, matrix[0].length);
+
+        AtomicLong currPairIndex = new AtomicLong(0);
         ParallelizationTools.launchParallelizedCode(() -> {
-            int i = currRowIndex.getAndIncrement();
-            while (i < initialMatrix.length) {
-                if (newIndexOrderAssignments[i] < checkVal) {
-                    // result[i][i] = Float.NaN; // technically 1, but not useful
-                    for (int j = i + 1; j < initialMatrix.length; j++) {
-                        if (newIndexOrderAssignments[j] < checkVal) {
-                            result[i][j] = metric.distance(initialMatrix[j], initialMatrix[i]);
-                            result[j][i] = result[i][j];
+            long p = currPairIndex.getAndIncrement();
+            while (p < tiles.numPairs) {
+                int ti = tiles.getRowTile(p);
+                int tj = tiles.getColTile(p, ti);
+                int iEnd = tiles.getEnd(ti);
+                int jEnd = tiles.getEnd(tj);
+                for (int i = tiles.getStart(ti); i < iEnd; i++) {
+                    if (assignments != null && assignments[i] >= checkVal) continue;
+                    float[] upperRow = result.getUpperRow(i);
+                    int jStart = Math.max(i, tiles.getStart(tj));
+                    if (assignments != null && jStart == i) jStart++;
+                    for (int j = jStart; j < jEnd; j++) {
+                        if (assignments == null || assignments[j] < checkVal) {
+                            upperRow[j - i] = metric.distance(matrix[i], matrix[j]);
                         }
                     }
                 }
-                i = currRowIndex.getAndIncrement();
+                if (p % 100 == 0) System.out.print(".");
+                p = currPairIndex.getAndIncrement();
             }
         });
-
-        RobustCorrelationSimilarity.USE_ARC = false;
-
-        return result;
     }
 
     public static float[][] getAsymNonNanSimilarityMatrixWithMask(float[][] initialMatrix,
@@ -184,9 +185,7 @@ public class SimilarityMatrixTools {
             int i = currRowIndex.getAndIncrement();
             while (i < initialMatrix.length) {
                 if (newIndexOrderAssignments[i] < checkVal) {
-                    for (int j = 0; j < numCentroids; j++) {
-                        result[i][j] = metric.distance(centroids[j], initialMatrix[i]);
-                    }
+                    metric.distances(initialMatrix[i], centroids, result[i]);
                 }
                 i = currRowIndex.getAndIncrement();
             }
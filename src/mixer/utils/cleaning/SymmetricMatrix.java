@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.cleaning;
+
+import java.util.Arrays;
+
+/**
+ * Packed upper triangle (diagonal included) of a symmetric n x n matrix.
+ * Row i only stores columns i..n-1, so this takes half the memory of a float[n][n]
+ * and has no 2^31 limit on the total number of entries.
+ */
+public class SymmetricMatrix {
+
+    private final float[][] upper;
+
+    public SymmetricMatrix(int n) {
+        upper = new float[n][];
+        for (int i = 0; i < n; i++) {
+            upper[i] = new float[n - i];
+        }
+    }
+
+    public int size() {
+        return upper.length;
+    }
+
+    public float get(int i, int j) {
+        if (i <= j) {
+            return upper[i][j - i];
+        }
+        return upper[j][i - j];
+    }
+
+    public void set(int i, int j, float val) {
+        if (i <= j) {
+            upper[i][j - i] = val;
+        } else {
+            upper[j][i - j] = val;
+        }
+    }
+
+    public void fill(float val) {
+        for (float[] row : upper) {
+            Arrays.fill(row, val);
+        }
+    }
+
+    /**
+     * entries (i, i..n-1); index k holds column i + k
+     */
+    public float[] getUpperRow(int i) {
+        return upper[i];
+    }
+
+    public void getRow(int i, float[] out) {
+        for (int j = 0; j < i; j++) {
+            out[j] = upper[j][i - j];
+        }
+        System.arraycopy(upper[i], 0, out, i, upper[i].length);
+    }
+
+    public float[][] toFullMatrix() {
+        int n = upper.length;
+        float[][] result = new float[n][n];
+        for (int i = 0; i < n; i++) {
+            getRow(i, result[i]);
+        }
+        return result;
+    }
+}
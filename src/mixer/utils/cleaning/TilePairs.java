@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.cleaning;
+
+import java.util.Arrays;
+
+/**
+ * Upper-triangular (rowTile <= colTile) pairs of row blocks for symmetric all-vs-all passes.
+ * Blocks are sized so two of them stay in L2 for the given row length.
+ */
+class TilePairs {
+
+    private static final int TILE_BYTES = 1 << 18;
+    final int numRows;
+    final int tileSize;
+    final int numTiles;
+    final long numPairs;
+    private final long[] firstPairOfTile;
+
+    TilePairs(int numRows, int numCols) {
+        this.numRows = numRows;
+        tileSize = Math.max(8, Math.min(256, TILE_BYTES / (4 * Math.max(1, numCols))));
+        numTiles = (numRows + tileSize - 1) / tileSize;
+        numPairs = (long) numTiles * (numTiles + 1) / 2;
+        firstPairOfTile = new long[numTiles];
+        for (int t = 1; t < numTiles; t++) {
+            firstPairOfTile[t] = firstPairOfTile[t - 1] + numTiles - (t - 1);
+        }
+    }
+
+    int getRowTile(long pair) {
+        int ti = Arrays.binarySearch(firstPairOfTile, pair);
+        return ti < 0 ? -ti - 2 : ti;
+    }
+
+    int getColTile(long pair, int rowTile) {
+        return rowTile + (int) (pair - firstPairOfTile[rowTile]);
+    }
+
+    int getStart(int tile) {
+        return tile * tileSize;
+    }
+
+    int getEnd(int tile) {
+        return (int) Math.min(numRows, (long) (tile + 1) * tileSize);
+    }
+}
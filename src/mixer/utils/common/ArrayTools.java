@@ -25,6 +25,7 @@
 package mixer.utils.common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -166,4 +167,91 @@ public class ArrayTools {
         }
         return values;
     }
+
+    /**
+     * @return entries of both sorted arrays, in ascending order
+     */
+    public static int[] intersectSorted(int[] arr1, int[] arr2) {
+        int[] output = new int[Math.min(arr1.length, arr2.length)];
+        int i = 0, j = 0, counter = 0;
+        while (i < arr1.length && j < arr2.length) {
+            if (arr1[i] < arr2[j]) {
+                i++;
+            } else if (arr1[i] > arr2[j]) {
+                j++;
+            } else {
+                output[counter++] = arr1[i];
+                i++;
+                j++;
+            }
+        }
+        return counter == output.length ? output : Arrays.copyOf(output, counter);
+    }
+
+    /**
+     * Same estimate as commons-math Percentile (legacy estimation, NaNs removed),
+     * using quickselect on a copy instead of sorting.
+     *
+     * @param scratch at least as long as values; overwritten
+     */
+    public static double percentile(double[] values, double p, double[] scratch) {
+        int n = 0;
+        for (double v : values) {
+            if (!Double.isNaN(v)) {
+                scratch[n++] = v;
+            }
+        }
+        if (n == 0) return Double.NaN;
+        if (n == 1) return scratch[0];
+
+        double pos = p * (n + 1) / 100;
+        int intPos = (int) Math.floor(pos);
+        if (pos < 1) return select(scratch, n, 0);
+        if (pos >= n) return select(scratch, n, n - 1);
+        double lower = select(scratch, n, intPos - 1);
+        // after the selection, everything right of intPos - 1 is >= lower
+        double upper = scratch[intPos];
+        for (int i = intPos + 1; i < n; i++) {
+            upper = Math.min(upper, scratch[i]);
+        }
+        return lower + (pos - intPos) * (upper - lower);
+    }
+
+    /**
+     * @return k-th smallest (0-based) of the first n entries, which are partially reordered
+     */
+    private static double select(double[] values, int n, int k) {
+        int left = 0, right = n - 1;
+        while (right > left) {
+            int mid = (left + right) >>> 1;
+            if (values[mid] < values[left]) swap(values, mid, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[mid]) swap(values, right, mid);
+            double pivot = values[mid];
+            int i = left, j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
 }
@@ -33,7 +33,7 @@ import mixer.utils.common.ZScoreTools;
 import mixer.utils.tracks.EigenvectorInterval;
 import mixer.utils.tracks.SliceUtils;
 import mixer.utils.tracks.SubcompartmentInterval;
-import robust.concurrent.kmeans.clustering.Cluster;
+import mixer.utils.transform.RandomizedSVD;
 
 import java.io.File;
 import java.util.*;
@@ -69,6 +69,16 @@ public class FinalMatrix {
         matrix = FloatMatrixTools.transpose(t);
     }
 
+    /**
+     * Replaces the columns with the top principal component scores.
+     * Column weights no longer apply afterwards, so they are reset to 1.
+     */
+    public void compressColumns(int numComponents, long seed) {
+        matrix = RandomizedSVD.projectOntoTopComponents(matrix, numComponents, seed);
+        weights = new int[matrix[0].length];
+        Arrays.fill(weights, 1);
+    }
+
     public void inPlaceScaleSqrtWeightCol() {
         ZScoreTools.inPlaceScaleSqrtWeightCol(matrix, weights);
     }
@@ -81,27 +91,6 @@ public class FinalMatrix {
         MatrixTools.saveMatrixTextNumpy(path2, weights);
     }
 
-    public void processKMeansClusteringResult(Cluster[] clusters, GenomeWide1DList<SubcompartmentInterval> subcompartments) {
-
-        Set<SubcompartmentInterval> subcompartmentIntervals = new HashSet<>();
-
-        int genomewideCompartmentID = 0;
-        for (Cluster cluster : clusters) {
-            int currentClusterID = ++genomewideCompartmentID;
-            for (int i : cluster.getMemberIndexes()) {
-                if (map.containsKey(i)) {
-                    SubcompartmentInterval interv = map.get(i);
-                    if (interv != null) {
-                        subcompartmentIntervals.add(generateNewSubcompartment(interv, currentClusterID));
-                    }
-                }
-            }
-        }
-
-        subcompartments.addAll(new ArrayList<>(subcompartmentIntervals));
-        SliceUtils.reSort(subcompartments);
-    }
-
     public GenomeWide1DList<EigenvectorInterval> processEigenvectorResult(float[] evec, ChromosomeHandler handler) {
 
         GenomeWide1DList<EigenvectorInterval> eig = new GenomeWide1DList<>(handler);
@@ -121,12 +110,20 @@ public class FinalMatrix {
     }
 
     public GenomeWide1DList<SubcompartmentInterval> getClusteringResult(int[] assignments, ChromosomeHandler handler) {
+        return getClusteringResult(assignments, 0, handler);
+    }
+
+    /**
+     * @param idOffset added to each assignment to get the cluster ID written out
+     */
+    public GenomeWide1DList<SubcompartmentInterval> getClusteringResult(int[] assignments, int idOffset,
+                                                                       ChromosomeHandler handler) {
         GenomeWide1DList<SubcompartmentInterval> subcompartments = new GenomeWide1DList<>(handler);
 
         Set<SubcompartmentInterval> subcompartmentIntervals = new HashSet<>();
         for (int i = 0; i < assignments.length; i++) {
             if (assignments[i] > -1) {
-                int currentClusterID = assignments[i];
+                int currentClusterID = assignments[i] + idOffset;
                 if (map.containsKey(i)) {
                     SubcompartmentInterval interv = map.get(i);
                     if (interv != null) {
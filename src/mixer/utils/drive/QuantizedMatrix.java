@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.drive;
+
+/**
+ * Int8 copy of a (z-scored, clipped) matrix for clustering: each entry is stored as a code
+ * in [-127, 127] times a per-column scale, with -128 reserved for NaN.
+ * Distances are computed directly on the codes against centers given in code units
+ * (see toCodeUnits), and follow the same NaN rules as the float robust metrics.
+ */
+public class QuantizedMatrix {
+
+    public static final byte NAN_CODE = Byte.MIN_VALUE;
+    private static final int MAX_CODE = 127;
+    public final byte[][] data;
+    public final float[] scales;
+
+    public QuantizedMatrix(float[][] matrix) {
+        int numCols = matrix[0].length;
+        scales = new float[numCols];
+        for (float[] row : matrix) {
+            for (int j = 0; j < numCols; j++) {
+                float val = Math.abs(row[j]);
+                if (val > scales[j]) {
+                    scales[j] = val;
+                }
+            }
+        }
+        for (int j = 0; j < numCols; j++) {
+            scales[j] = scales[j] > 0 ? scales[j] / MAX_CODE : 1;
+        }
+
+        data = new byte[matrix.length][numCols];
+        for (int i = 0; i < matrix.length; i++) {
+            for (int j = 0; j < numCols; j++) {
+                float val = matrix[i][j];
+                if (Float.isNaN(val)) {
+                    data[i][j] = NAN_CODE;
+                } else {
+                    data[i][j] = (byte) Math.round(val / scales[j]);
+                }
+            }
+        }
+    }
+
+    public int getNumRows() {
+        return data.length;
+    }
+
+    public int getNumCols() {
+        return scales.length;
+    }
+
+    /**
+     * @return the row decoded back to float units (NaN for NAN_CODE)
+     */
+    public float[] getRow(int row) {
+        byte[] codes = data[row];
+        float[] values = new float[codes.length];
+        for (int j = 0; j < codes.length; j++) {
+            values[j] = codes[j] == NAN_CODE ? Float.NaN : codes[j] * scales[j];
+        }
+        return values;
+    }
+
+    public float[] toCodeUnits(float[] center) {
+        float[] scaled = new float[center.length];
+        for (int j = 0; j < center.length; j++) {
+            scaled[j] = center[j] / scales[j];
+        }
+        return scaled;
+    }
+
+    /**
+     * Same scaling as RobustManhattanDistance or RobustEuclideanDistance.getNonNanMeanSquaredError
+     */
+    public double getDistance(float[] scaledCenter, int row, boolean useKMedians) {
+        if (useKMedians) {
+            return getNonNanMeanAbsoluteError(scaledCenter, row) * scaledCenter.length;
+        }
+        return getNonNanMeanSquaredError(scaledCenter, row);
+    }
+
+    private double getNonNanMeanSquaredError(float[] scaledCenter, int row) {
+        byte[] codes = data[row];
+        double sumOfSquares = 0;
+        int numVals = 0;
+        for (int j = 0; j < codes.length; j++) {
+            if (codes[j] != NAN_CODE) {
+                float v = (scaledCenter[j] - codes[j]) * scales[j];
+                if (!Float.isNaN(v)) {
+                    sumOfSquares += v * v;
+                    numVals++;
+                }
+            }
+        }
+        if (numVals < 1) {
+            return Float.MAX_VALUE;
+        }
+        return codes.length * sumOfSquares / numVals;
+    }
+
+    private double getNonNanMeanAbsoluteError(float[] scaledCenter, int row) {
+        byte[] codes = data[row];
+        double sumOfError = 0;
+        int numDiffs = 0;
+        for (int j = 0; j < codes.length; j++) {
+            if (codes[j] != NAN_CODE) {
+                float v = (scaledCenter[j] - codes[j]) * scales[j];
+                if (!Float.isNaN(v)) {
+                    sumOfError += Math.abs(v);
+                    numDiffs++;
+                }
+            }
+        }
+        if (numDiffs < 1) {
+            return Float.MAX_VALUE;
+        }
+        return sumOfError / numDiffs;
+    }
+}
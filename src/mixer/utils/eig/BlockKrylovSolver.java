@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.eig;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Leading eigenvectors of a symmetric operator by block Krylov (block Lanczos) iteration with
+ * full reorthogonalization. Each step multiplies a whole block of vectors in one pass, appends
+ * the orthonormalized block to the basis Q, and solves the small projected problem Q^T C Q;
+ * iteration stops once every requested Ritz pair has ||C x - theta x|| <= tolerance * |theta|.
+ * Since each block is built from the products of the previous one, C times the older blocks stays
+ * inside the basis; only the products of the newest block are kept, and they give both the new
+ * entries of Q^T C Q and the residuals. A starting block (e.g. eigenvectors of a closely related
+ * matrix) can be supplied.
+ */
+public class BlockKrylovSolver {
+
+    private static final int OVERSAMPLING = 2;
+    private static final double DEFLATION_TOLERANCE = 1e-10;
+    public static double MAX_BASIS_MEMORY_FRACTION = 0.25;
+    private final CorrelationOperator operator;
+    private final int n;
+    private final List<double[]> basis = new ArrayList<>();
+    private double[][] projected;
+    private double[] eigenvalues;
+
+    public BlockKrylovSolver(CorrelationOperator operator) {
+        this.operator = operator;
+        this.n = operator.size();
+    }
+
+    /**
+     * @param start     initial vectors, padded with random ones up to the block size; may be null
+     * @param maxBasis  cap on the number of basis vectors kept; lowered further so the basis
+     *                  fits in MAX_BASIS_MEMORY_FRACTION of the heap
+     * @return the numComponents eigenvectors with the largest eigenvalues, largest first
+     */
+    public double[][] getTopEigenvectors(int numComponents, double[][] start, double tolerance,
+                                         int maxBasis, long seed) {
+        basis.clear();
+        numComponents = Math.min(numComponents, n);
+        int blockSize = Math.min(numComponents + OVERSAMPLING, n);
+        long maxBasisForMemory = (long) (MAX_BASIS_MEMORY_FRACTION * Runtime.getRuntime().maxMemory()) / (8L * Math.max(n, 1));
+        maxBasis = (int) Math.max(Math.min(Math.min(maxBasis, n), maxBasisForMemory), blockSize);
+        projected = new double[maxBasis][maxBasis];
+        if (n == 0) return new double[0][0];
+
+        double[][] block = getStartingBlock(start, blockSize, new Random(seed));
+        EigenDecomposition ritz = null;
+        while (true) {
+            block = orthonormalize(block);
+            if (block.length == 0) break;
+
+            double[][] product = new double[block.length][n];
+            operator.multiply(block, product);
+            int previousSize = basis.size();
+            basis.addAll(Arrays.asList(block));
+
+            ritz = new EigenDecomposition(MatrixUtils.createRealMatrix(updateProjectedMatrix(previousSize, product)));
+            if (basis.size() >= numComponents && hasConverged(ritz, numComponents, tolerance, previousSize, product)) {
+                break;
+            }
+            if (basis.size() + blockSize > maxBasis) {
+                System.err.println("Block Krylov stopped at " + basis.size() + " vectors before converging");
+                break;
+            }
+            block = product;
+        }
+
+        return getRitzVectors(ritz, Math.min(numComponents, basis.size()));
+    }
+
+    public double[] getEigenvalues() {
+        return eigenvalues;
+    }
+
+    private double[][] getStartingBlock(double[][] start, int blockSize, Random generator) {
+        double[][] block = new double[blockSize][];
+        for (int c = 0; c < blockSize; c++) {
+            if (start != null && c < start.length && start[c].length == n) {
+                block[c] = start[c].clone();
+            } else {
+                block[c] = new double[n];
+                for (int i = 0; i < n; i++) {
+                    block[c][i] = generator.nextGaussian();
+                }
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Gram-Schmidt against the basis and the earlier vectors of the block, applied twice;
+     * vectors that vanish (the Krylov space is exhausted in that direction) are dropped
+     */
+    private double[][] orthonormalize(double[][] block) {
+        List<double[]> kept = new ArrayList<>(block.length);
+        for (double[] w : block) {
+            double initialNorm = norm(w);
+            if (initialNorm == 0) continue;
+            for (int pass = 0; pass < 2; pass++) {
+                subtractProjections(w, basis);
+                subtractProjections(w, kept);
+            }
+            double norm = norm(w);
+            if (norm > DEFLATION_TOLERANCE * initialNorm) {
+                scale(w, 1 / norm);
+                kept.add(w);
+            }
+        }
+        return kept.toArray(new double[0][]);
+    }
+
+    private void subtractProjections(double[] w, List<double[]> vectors) {
+        for (double[] q : vectors) {
+            double projection = dot(w, q);
+            for (int i = 0; i < n; i++) {
+                w[i] -= projection * q[i];
+            }
+        }
+    }
+
+    /**
+     * Q^T (C Q); only the entries involving the newest block (columns previousSize onward,
+     * whose products are given) are computed, and mirrored
+     */
+    private double[][] updateProjectedMatrix(int previousSize, double[][] product) {
+        int s = basis.size();
+        for (int b = previousSize; b < s; b++) {
+            for (int a = 0; a <= b; a++) {
+                double val = dot(basis.get(a), product[b - previousSize]);
+                projected[a][b] = val;
+                projected[b][a] = val;
+            }
+        }
+        double[][] result = new double[s][];
+        for (int a = 0; a < s; a++) {
+            result[a] = Arrays.copyOf(projected[a], s);
+        }
+        return result;
+    }
+
+    /**
+     * For x = Q y, Q Q^T C x = theta x, so the residual is (I - Q Q^T) C x; C times the older
+     * blocks lies in the basis, leaving (I - Q Q^T) times the newest products weighted by the
+     * newest entries of y
+     */
+    private boolean hasConverged(EigenDecomposition ritz, int numComponents, double tolerance,
+                                 int previousSize, double[][] product) {
+        double[] residual = new double[n];
+        for (int c = 0; c < numComponents; c++) {
+            double theta = ritz.getRealEigenvalue(c);
+            double[] coefficients = ritz.getEigenvector(c).toArray();
+            Arrays.fill(residual, 0);
+            for (int b = previousSize; b < basis.size(); b++) {
+                double[] cq = product[b - previousSize];
+                for (int i = 0; i < n; i++) {
+                    residual[i] += coefficients[b] * cq[i];
+                }
+            }
+            for (int pass = 0; pass < 2; pass++) {
+                subtractProjections(residual, basis);
+            }
+            if (norm(residual) > tolerance * Math.max(Math.abs(theta), 1e-12)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double[][] getRitzVectors(EigenDecomposition ritz, int numComponents) {
+        double[][] vectors = new double[numComponents][n];
+        eigenvalues = new double[numComponents];
+        for (int c = 0; c < numComponents; c++) {
+            eigenvalues[c] = ritz.getRealEigenvalue(c);
+            double[] coefficients = ritz.getEigenvector(c).toArray();
+            for (int b = 0; b < basis.size(); b++) {
+                double[] q = basis.get(b);
+                for (int i = 0; i < n; i++) {
+                    vectors[c][i] += coefficients[b] * q[i];
+                }
+            }
+        }
+        return vectors;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static void scale(double[] a, double factor) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] *= factor;
+        }
+    }
+}
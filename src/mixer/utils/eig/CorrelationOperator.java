@@ -0,0 +1,210 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.eig;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.utils.cleaning.SimilarityMatrixTools;
+import mixer.utils.cleaning.SymmetricMatrix;
+import mixer.utils.similaritymeasures.RobustCorrelationSimilarity;
+import mixer.utils.similaritymeasures.SimilarityMetric;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * y = C * v for the row-by-row correlation matrix C, without building C as a dense double[][].
+ * Without NaNs, C = Z * Z^T for the standardized rows Z, so a product is two O(n * m) passes.
+ * With NaNs every pair has its own means and norms; the packed upper triangle is cached when it
+ * fits comfortably in memory, otherwise its rows are recomputed for every product.
+ * NaN correlations (e.g. constant rows) count as 0.
+ */
+public class CorrelationOperator {
+
+    private static final int ROW_BLOCK = 64;
+    public static double MAX_CACHED_MEMORY_FRACTION = 0.25;
+    private final int n;
+    private float[][] standardized;
+    private SymmetricMatrix packed;
+    private float[][] matrix;
+    private final SimilarityMetric metric = RobustCorrelationSimilarity.SINGLETON;
+
+    public CorrelationOperator(float[][] matrix) {
+        this.n = matrix.length;
+        if (!hasNaNs(matrix) && !RobustCorrelationSimilarity.USE_ARC) {
+            standardized = standardize(matrix);
+        } else if (2L * n * (n + 1) < MAX_CACHED_MEMORY_FRACTION * Runtime.getRuntime().maxMemory()) {
+            packed = SimilarityMatrixTools.getPackedSymmetricDistanceMatrix(matrix, metric);
+        } else {
+            this.matrix = matrix;
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public void multiply(double[] v, double[] out) {
+        multiply(new double[][]{v}, new double[][]{out});
+    }
+
+    /**
+     * out[c] = C * vectors[c]; the block shares one pass over the rows (or over C)
+     */
+    public void multiply(double[][] vectors, double[][] out) {
+        if (standardized != null) {
+            multiplyFactored(vectors, out);
+        } else {
+            multiplyUpperRows(vectors, out);
+        }
+    }
+
+    private static boolean hasNaNs(float[][] matrix) {
+        for (float[] row : matrix) {
+            for (float val : row) {
+                if (Float.isNaN(val)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static float[][] standardize(float[][] matrix) {
+        float[][] result = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            float[] row = matrix[i];
+            double sum = 0;
+            for (float val : row) {
+                sum += val;
+            }
+            double mean = sum / row.length;
+            double norm = 0;
+            for (float val : row) {
+                norm += (val - mean) * (val - mean);
+            }
+            double scale = norm > 0 ? 1 / Math.sqrt(norm) : 0;
+            result[i] = new float[row.length];
+            for (int k = 0; k < row.length; k++) {
+                result[i][k] = (float) ((row[k] - mean) * scale);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Z^T * V reduced over thread-local copies, then Z times that
+     */
+    private void multiplyFactored(double[][] vectors, double[][] out) {
+        int b = vectors.length;
+        int m = standardized.length > 0 ? standardized[0].length : 0;
+        double[][] projection = new double[b][m];
+        AtomicInteger currBlock = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            double[][] local = new double[b][m];
+            int start = currBlock.getAndAdd(ROW_BLOCK);
+            while (start < n) {
+                for (int i = start; i < Math.min(start + ROW_BLOCK, n); i++) {
+                    float[] row = standardized[i];
+                    for (int c = 0; c < b; c++) {
+                        double vi = vectors[c][i];
+                        double[] localC = local[c];
+                        for (int k = 0; k < m; k++) {
+                            localC[k] += row[k] * vi;
+                        }
+                    }
+                }
+                start = currBlock.getAndAdd(ROW_BLOCK);
+            }
+            addTo(projection, local);
+        });
+
+        AtomicInteger currRow = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int i = currRow.getAndIncrement();
+            while (i < n) {
+                float[] row = standardized[i];
+                for (int c = 0; c < b; c++) {
+                    double[] projectionC = projection[c];
+                    double sum = 0;
+                    for (int k = 0; k < m; k++) {
+                        sum += row[k] * projectionC[k];
+                    }
+                    out[c][i] = sum;
+                }
+                i = currRow.getAndIncrement();
+            }
+        });
+    }
+
+    /**
+     * each upper row i contributes to out[i] and, by symmetry, to out[j] for j > i
+     */
+    private void multiplyUpperRows(double[][] vectors, double[][] out) {
+        int b = vectors.length;
+        for (double[] outC : out) {
+            Arrays.fill(outC, 0);
+        }
+        AtomicInteger currRow = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            double[][] local = new double[b][n];
+            float[] scratch = packed == null ? new float[n] : null;
+            int i = currRow.getAndIncrement();
+            while (i < n) {
+                float[] upperRow = packed == null ? fillUpperRow(i, scratch) : packed.getUpperRow(i);
+                for (int c = 0; c < b; c++) {
+                    double[] v = vectors[c];
+                    double[] localC = local[c];
+                    double sum = 0;
+                    for (int k = 0; k < n - i; k++) {
+                        float val = upperRow[k];
+                        if (Float.isNaN(val)) continue;
+                        sum += val * v[i + k];
+                        if (k > 0) {
+                            localC[i + k] += val * v[i];
+                        }
+                    }
+                    localC[i] += sum;
+                }
+                i = currRow.getAndIncrement();
+            }
+            addTo(out, local);
+        });
+    }
+
+    private float[] fillUpperRow(int i, float[] scratch) {
+        for (int j = i; j < n; j++) {
+            scratch[j - i] = metric.distance(matrix[i], matrix[j]);
+        }
+        return scratch;
+    }
+
+    private static void addTo(double[][] total, double[][] local) {
+        synchronized (total) {
+            for (int c = 0; c < total.length; c++) {
+                for (int k = 0; k < total[c].length; k++) {
+                    total[c][k] += local[c][k];
+                }
+            }
+        }
+    }
+}
@@ -26,34 +26,50 @@ package mixer.utils.eig;
 
 import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.basics.ChromosomeHandler;
-import mixer.utils.cleaning.SimilarityMatrixTools;
+import mixer.SmartTools;
 import mixer.utils.drive.FinalMatrix;
-import mixer.utils.similaritymeasures.RobustCorrelationSimilarity;
 import mixer.utils.tracks.EigenvectorInterval;
-import org.apache.commons.math3.linear.EigenDecomposition;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 public class EigenvectorTools {
-    public static void runEigenvectorAnalysis(String prefix, Map<Integer, List<String>> bedFiles,
-                                              ChromosomeHandler handler, FinalMatrix matrix) {
-        float[] eigenvector = run(matrix);
-        GenomeWide1DList<EigenvectorInterval> result = matrix.processEigenvectorResult(eigenvector, handler);
-        File outBedFile = new File("EIG_" + prefix + ".bedgraph");
-        result.simpleExport(outBedFile);
+    public static int numComponents = 3;
+    public static double TOLERANCE = 1e-6;
+    public static int MAX_BASIS_SIZE = 300;
+    private static final long SEED = 0;
+
+    /**
+     * exports the leading eigenvectors as EIG_prefix_E1.bedgraph, EIG_prefix_E2.bedgraph, ...
+     *
+     * @param start eigenvectors of a related matrix to start from, or null
+     * @return the eigenvectors, for reuse as a later starting block
+     */
+    public static double[][] runEigenvectorAnalysis(String prefix, File outputDirectory, ChromosomeHandler handler,
+                                                    FinalMatrix matrix, double[][] start) {
+        double[][] eigenvectors = run(matrix, numComponents, start);
+        for (int c = 0; c < eigenvectors.length; c++) {
+            GenomeWide1DList<EigenvectorInterval> result = matrix.processEigenvectorResult(
+                    convert(eigenvectors[c]), handler);
+            result.simpleExport(new File(outputDirectory, "EIG_" + prefix + "_E" + (c + 1) + ".bedgraph"));
+        }
+        return eigenvectors;
     }
 
     public static float[] run(FinalMatrix matrix) {
-        float[][] array = SimilarityMatrixTools.getSymmetricDistanceMatrix(matrix.matrix,
-                RobustCorrelationSimilarity.SINGLETON);
-        RealMatrix realMatrix = MatrixUtils.createRealMatrix(convert(array));
-        //RealMatrix covarianceMatrix = new Covariance(realMatrix).getCovarianceMatrix();
-        EigenDecomposition ed = new EigenDecomposition(realMatrix);
-        return convert(ed.getEigenvector(0).toArray());
+        return convert(run(matrix, 1, null)[0]);
+    }
+
+    /**
+     * leading eigenvectors of the row correlation matrix, largest eigenvalue first
+     */
+    public static double[][] run(FinalMatrix matrix, int numComponents, double[][] start) {
+        BlockKrylovSolver solver = new BlockKrylovSolver(new CorrelationOperator(matrix.matrix));
+        double[][] eigenvectors = solver.getTopEigenvectors(numComponents, start, TOLERANCE, MAX_BASIS_SIZE, SEED);
+        if (SmartTools.printVerboseComments) {
+            System.out.println("Eigenvalues: " + Arrays.toString(solver.getEigenvalues()));
+        }
+        return eigenvectors;
     }
 
     public static float[] convert(double[] row) {
@@ -26,10 +26,10 @@ package mixer.utils.impute;
 
 import javastraw.tools.ParallelizationTools;
 import mixer.SmartTools;
+import mixer.utils.kmeans.ConcurrentKMedians;
 import robust.concurrent.kmeans.clustering.Cluster;
 import robust.concurrent.kmeans.clustering.KMeansListener;
 import robust.concurrent.kmeans.clustering.RobustConcurrentKMeans;
-import robust.concurrent.kmeans.clustering.RobustConcurrentKMedians;
 
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -40,14 +40,15 @@ public class CentroidImputer {
     public static void updateBasedOnCentroids(float[][] imputed, int numClusters, Random generator,
                                               boolean useKmedians) {
         AtomicInteger numActualClusters = new AtomicInteger(-1);
-        RobustConcurrentKMeans kMeans;
         if (useKmedians) {
-            kMeans = new RobustConcurrentKMedians(imputed, numClusters, 15, generator.nextLong(),
-                    SmartTools.NUM_ENTRIES_TO_SKIP_MEDIAN);
-        } else {
-            kMeans = new RobustConcurrentKMeans(imputed, numClusters, 15, generator.nextLong());
+            ConcurrentKMedians kMedians = new ConcurrentKMedians(imputed, numClusters, 15, generator.nextLong());
+            updateImputedMatrixEntries(kMedians.run(), imputed, numActualClusters);
+            System.out.print(".");
+            return;
         }
 
+        RobustConcurrentKMeans kMeans = new RobustConcurrentKMeans(imputed, numClusters, 15, generator.nextLong());
+
         KMeansListener kMeansListener = new KMeansListener() {
             @Override
             public void kmeansMessage(String s) {
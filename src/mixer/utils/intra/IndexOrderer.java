@@ -32,6 +32,7 @@ import javastraw.tools.HiCFileTools;
 import javastraw.tools.ParallelizationTools;
 import mixer.SmartTools;
 import mixer.utils.cleaning.SimilarityMatrixTools;
+import mixer.utils.cleaning.SymmetricMatrix;
 import mixer.utils.drive.BinMappings;
 import mixer.utils.kmeans.QuickCentroids;
 import mixer.utils.similaritymeasures.RobustCorrelationSimilarity;
@@ -115,6 +116,27 @@ public class IndexOrderer {
         return tempCleanMatrix;
     }
 
+    /**
+     * same rows as quickCleanMatrix, read one at a time from the packed matrix
+     */
+    private static float[][] quickCleanMatrix(SymmetricMatrix matrix, int[] newIndexOrderAssignments) {
+        int n = matrix.size();
+        float[] row = new float[n];
+        List<float[]> keptRows = new ArrayList<>();
+        for (int z = 0; z < newIndexOrderAssignments.length; z++) {
+            if (newIndexOrderAssignments[z] < CHECK_VAL) {
+                matrix.getRow(z, row);
+                if (percentNaN(row) < .7) {
+                    keptRows.add(row.clone());
+                }
+            }
+        }
+        if (SmartTools.printVerboseComments) {
+            System.out.println("New clean matrix: " + keptRows.size() + " rows kept from " + n);
+        }
+        return keptRows.toArray(new float[0][]);
+    }
+
     private static int[] convertToHigherRes(int[] lowResOrderIndexes, Chromosome chrom, int hires, int resFactor) {
         int hiResLength = (int) (chrom.getLength() / hires) + 1;
         int[] hiResOrderAssignments = new int[hiResLength];
@@ -136,7 +158,7 @@ public class IndexOrderer {
         int[] newIndexOrderAssignments = generateNewAssignments(oeMatrix1.length, badIndices, resFactor);
         int numPotentialClusters = (int) (chromosome.getLength() / FIFTY_MB) + 5;
 
-        float[][] matrixCorr1 = SimilarityMatrixTools.getSymmNonNanSimilarityMatrixWithMask(oeMatrix1,
+        SymmetricMatrix matrixCorr1 = SimilarityMatrixTools.getSymmNonNanSimilarityMatrixWithMask(oeMatrix1,
                 RobustCosineSimilarity.SINGLETON, newIndexOrderAssignments, CHECK_VAL);
         IntraMatrixCleaner.nanFillBadRowsColumns(badIndices, matrixCorr1, resFactor);
         IntraMatrixCleaner.nanFillNearDiagonal(matrixCorr1, FIVE_MB / lowRes);
@@ -151,7 +173,7 @@ public class IndexOrderer {
         return newIndexOrderAssignments;
     }
 
-    private static int doAssignmentsByCorrWithCentroids(float[][] matrix, int[] newIndexOrderAssignments, String chromName,
+    private static int doAssignmentsByCorrWithCentroids(SymmetricMatrix matrix, int[] newIndexOrderAssignments, String chromName,
                                                         int numInitialClusters, long seed, int offset) {
         float[][] centroids = new QuickCentroids(quickCleanMatrix(matrix, newIndexOrderAssignments),
                 numInitialClusters, seed, 20).generateCentroids(10, false);
@@ -163,14 +185,18 @@ public class IndexOrderer {
         AtomicInteger currDataIndex = new AtomicInteger(0);
         ParallelizationTools.launchParallelizedCode(() -> {
             SimilarityMetric corrMetric = RobustCorrelationSimilarity.SINGLETON;
+            float[] corrs = new float[centroids.length];
+            float[] row = new float[matrix.size()];
             int i = currDataIndex.getAndIncrement();
-            while (i < (matrix).length) {
+            while (i < matrix.size()) {
                 if (newIndexOrderAssignments[i] < CHECK_VAL) {
                     int bestIndex = IGNORE;
                     float bestCorr = CORR_MIN;
 
+                    matrix.getRow(i, row);
+                    corrMetric.distances(row, centroids, corrs);
                     for (int j = 0; j < centroids.length; j++) {
-                        float corrVal = corrMetric.distance(centroids[j], matrix[i]);
+                        float corrVal = corrs[j];
                         if (corrVal > bestCorr) {
                             bestCorr = corrVal;
                             bestIndex = j;
@@ -189,7 +215,7 @@ public class IndexOrderer {
 
         if (SmartTools.printVerboseComments) {
             synchronized (problemIndices) {
-                double percentProblem = 100 * (problemIndices.size() + 0.0) / (matrix.length + 0.0);
+                double percentProblem = 100 * (problemIndices.size() + 0.0) / (matrix.size() + 0.0);
                 System.out.println("IndexOrderer problems: " + problemIndices.size() + " (" + percentProblem + " %)");
             }
         }
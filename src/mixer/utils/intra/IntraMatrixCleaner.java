@@ -24,6 +24,8 @@
 
 package mixer.utils.intra;
 
+import mixer.utils.cleaning.SymmetricMatrix;
+
 import java.util.Arrays;
 import java.util.Set;
 
@@ -43,6 +45,21 @@ public class IntraMatrixCleaner {
         }
     }
 
+    public static void nanFillBadRowsColumns(Set<Integer> badIndices, SymmetricMatrix matrix, int resFactor) {
+        for (int k : badIndices) {
+            for (int i = 0; i < matrix.size(); i++) {
+                matrix.set(i, k / resFactor, Float.NaN);
+            }
+        }
+    }
+
+    public static void nanFillNearDiagonal(SymmetricMatrix matrix, int pixelDistance) {
+        for (int i = 0; i < matrix.size(); i++) {
+            float[] upperRow = matrix.getUpperRow(i);
+            Arrays.fill(upperRow, 0, Math.min(upperRow.length, pixelDistance), Float.NaN);
+        }
+    }
+
     public static void nanFillNearDiagonal(float[][] data, int pixelDistance) {
         for (int i = 0; i < data.length; i++) {
             int limit = Math.min(data[i].length, i + pixelDistance);
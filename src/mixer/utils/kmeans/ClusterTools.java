@@ -26,6 +26,7 @@ package mixer.utils.kmeans;
 
 import javastraw.tools.MatrixTools;
 import mixer.utils.similaritymeasures.RobustEuclideanDistance;
+import mixer.utils.similaritymeasures.RobustManhattanDistance;
 import mixer.utils.similaritymeasures.SimilarityMetric;
 import org.apache.commons.math.stat.inference.ChiSquareTestImpl;
 import robust.concurrent.kmeans.clustering.Cluster;
@@ -34,6 +35,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 public class ClusterTools {
 
@@ -62,6 +64,86 @@ public class ClusterTools {
         return sortedClusters;
     }
 
+    public static double getDistance(float[] center, float[] vector, boolean useKMedians) {
+        if (useKMedians) {
+            return RobustManhattanDistance.SINGLETON.distance(center, vector);
+        }
+        return RobustEuclideanDistance.getNonNanMeanSquaredError(center, vector);
+    }
+
+    /**
+     * kmeans++ seeding on a random subset of rows
+     */
+    public static float[][] getKMeansPlusPlusCenters(float[][] matrix, int numClusters, int maxSampleSize,
+                                                     Random generator, boolean useKMedians) {
+        int sampleSize = Math.min(matrix.length, maxSampleSize);
+        float[][] sample = new float[sampleSize][];
+        for (int s = 0; s < sampleSize; s++) {
+            sample[s] = matrix[generator.nextInt(matrix.length)];
+        }
+        return getKMeansPlusPlusCenters(sample, numClusters, generator, useKMedians);
+    }
+
+    /**
+     * kmeans++ seeding using every given row as the sample
+     */
+    public static float[][] getKMeansPlusPlusCenters(float[][] sample, int numClusters,
+                                                     Random generator, boolean useKMedians) {
+        int sampleSize = sample.length;
+        float[][] centers = new float[numClusters][];
+        double[] minDist = new double[sampleSize];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        float[] chosen = sample[generator.nextInt(sampleSize)];
+        for (int c = 0; c < numClusters; c++) {
+            centers[c] = Arrays.copyOf(chosen, chosen.length);
+            if (c == numClusters - 1) break;
+
+            double total = 0;
+            for (int s = 0; s < sampleSize; s++) {
+                double d = getDistance(centers[c], sample[s], useKMedians);
+                if (d < minDist[s]) minDist[s] = d;
+                if (minDist[s] < Float.MAX_VALUE) total += minDist[s];
+            }
+
+            double target = generator.nextDouble() * total;
+            chosen = sample[generator.nextInt(sampleSize)];
+            for (int s = 0; s < sampleSize; s++) {
+                if (minDist[s] < Float.MAX_VALUE) {
+                    target -= minDist[s];
+                    if (target <= 0) {
+                        chosen = sample[s];
+                        break;
+                    }
+                }
+            }
+        }
+        return centers;
+    }
+
+    public static int[][] groupByCluster(int[] assignments, int numClusters) {
+        return groupByCluster(null, assignments, numClusters);
+    }
+
+    /**
+     * @param rows row index for each assignment, or null if assignments[i] is for row i
+     * @return member row indices for each cluster
+     */
+    public static int[][] groupByCluster(int[] rows, int[] assignments, int numClusters) {
+        int[] sizes = new int[numClusters];
+        for (int a : assignments) {
+            sizes[a]++;
+        }
+        int[][] members = new int[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            members[c] = new int[sizes[c]];
+        }
+        int[] filled = new int[numClusters];
+        for (int i = 0; i < assignments.length; i++) {
+            int c = assignments[i];
+            members[c][filled[c]++] = rows == null ? i : rows[i];
+        }
+        return members;
+    }
 
     public static void performStatisticalAnalysisBetweenClusters(File directory, String description, Cluster[] clusters,
                                                                  int[] ids) {
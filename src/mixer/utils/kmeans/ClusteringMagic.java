@@ -26,6 +26,7 @@ package mixer.utils.kmeans;
 
 import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.basics.ChromosomeHandler;
+import mixer.SmartTools;
 import mixer.utils.drive.FinalMatrix;
 import mixer.utils.eig.EigenvectorTools;
 import mixer.utils.tracks.SliceUtils;
@@ -75,14 +76,17 @@ public class ClusteringMagic {
         System.out.println("Genome-wide KMeans clustering");
         runClusteringOnMatrix(prefix, false, bedFiles);
 
+        double[][] eigenvectors = null;
         if (doEigenvector) {
-            EigenvectorTools.runEigenvectorAnalysis(prefix, bedFiles, handler, matrix);
+            eigenvectors = EigenvectorTools.runEigenvectorAnalysis(prefix, outputDirectory, handler, matrix, null);
         }
 
         if (scaleColWeights) {
             matrix.inPlaceScaleSqrtWeightCol();
             if (doEigenvector) {
-                EigenvectorTools.runEigenvectorAnalysis(prefix + "_S2", bedFiles, handler, matrix);
+                // the rescaled matrix is close to the previous one, so its eigenvectors are a good start
+                EigenvectorTools.runEigenvectorAnalysis(prefix + "_S2", outputDirectory, handler, matrix,
+                        eigenvectors);
             }
         }
         System.out.println("Genome-wide KMedians clustering");
@@ -91,8 +95,7 @@ public class ClusteringMagic {
 
     private void runClusteringOnMatrix(String prefix, boolean useKMedians,
                                        Map<Integer, List<String>> outputs) {
-        GenomeWideKmeansRunner kmeansRunner = new GenomeWideKmeansRunner(handler, matrix,
-                false, useKMedians);
+        GenomeWideKmeansRunner kmeansRunner = new GenomeWideKmeansRunner(handler, matrix, useKMedians);
         for (int z = 0; z < numClusterSizeKValsUsed; z++) {
             runKMeansMultipleTimes(kmeansRunner, z, useKMedians, prefix, outputs);
         }
@@ -103,24 +106,32 @@ public class ClusteringMagic {
                                         int z, boolean useKMedians, String prefix,
                                         Map<Integer, List<String>> outputs) {
         int numClusters = z + startingClusterSizeK;
-        double wcssLimit = Float.MAX_VALUE;
-        GenomeWide1DList<SubcompartmentInterval> bestClusters = null;
-        int[] bestAssignments = null;
-        int attempts = 0;
-        while (bestAssignments == null || attempts < 20) {
+        KmeansResult bestResult = getBestResult(kmeansRunner, numClusters);
+        if (bestResult == null) return;
+        GenomeWide1DList<SubcompartmentInterval> bestClusters = bestResult.getFinalCompartments(matrix);
+        SliceUtils.collapseGWList(bestClusters);
+        exportKMeansClusteringResults(z, prefix, useKMedians, bestClusters, outputs);
+    }
+
+    protected KmeansResult getBestResult(GenomeWideKmeansRunner kmeansRunner, int numClusters) {
+        RestartPolicy policy = new RestartPolicy();
+        KmeansResult bestResult = null;
+        while (policy.shouldContinue()) {
             KmeansResult currResult = resetAndRerun(kmeansRunner, generator, numClusters);
             double wcss = currResult.getWithinClusterSumOfSquares();
-            if (currResult.getNumActualClusters() == numClusters && wcss < Float.MAX_VALUE) {
-                if (wcss < wcssLimit) {
-                    wcssLimit = wcss;
-                    bestAssignments = currResult.getAssignments(matrix.getNumRows());
-                    bestClusters = currResult.getFinalCompartmentsClone();
-                }
-                attempts++;
+            boolean isValid = currResult.getNumActualClusters() == numClusters && wcss < Float.MAX_VALUE;
+            if (policy.update(wcss, isValid)) {
+                bestResult = currResult;
             }
         }
-        SliceUtils.collapseGWList(bestClusters);
-        exportKMeansClusteringResults(z, prefix, useKMedians, bestClusters, outputs);
+        if (SmartTools.printVerboseComments) {
+            System.out.println(policy.getSummary(numClusters));
+        }
+        if (!policy.hasValidResult()) {
+            System.err.println("No valid clustering found for k=" + numClusters);
+            return null;
+        }
+        return bestResult;
     }
 
     protected KmeansResult resetAndRerun(GenomeWideKmeansRunner kmeansRunner, Random generator, int numClusters) {
@@ -24,11 +24,9 @@
 
 package mixer.utils.kmeans;
 
-import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.basics.ChromosomeHandler;
 import mixer.utils.common.FloatMatrixTools;
 import mixer.utils.drive.FinalMatrix;
-import mixer.utils.tracks.SubcompartmentInterval;
 
 import java.io.File;
 
@@ -65,8 +63,7 @@ public class ClusteringMagic2 extends ClusteringMagic {
     }
 
     private int[][] runClusteringOnMatrix(String prefix, boolean useKMedians) {
-        GenomeWideKmeansRunner kmeansRunner = new GenomeWideKmeansRunner(handler, matrix,
-                false, useKMedians);
+        GenomeWideKmeansRunner kmeansRunner = new GenomeWideKmeansRunner(handler, matrix, useKMedians);
         int[][] assignments = new int[numClusterSizeKValsUsed][0];
         for (int z = 0; z < numClusterSizeKValsUsed; z++) {
             int numClusters = z + startingClusterSizeK;
@@ -78,26 +75,9 @@ public class ClusteringMagic2 extends ClusteringMagic {
 
     private int[] getGoodResults(GenomeWideKmeansRunner kmeansRunner, int numClusters,
                                  int z, String prefix, boolean useKMedians) {
-        double wcssLimit = Float.MAX_VALUE;
-        GenomeWide1DList<SubcompartmentInterval> bestClusters = null;
-        int[] bestAssignments = null;
-        int attemptsWhichWorked = 0;
-        int attempt = 0;
-        while (bestAssignments == null || attemptsWhichWorked < 20) {
-            System.out.print("-");
-            KmeansResult currResult = resetAndRerun(kmeansRunner, generator, numClusters);
-            double wcss = currResult.getWithinClusterSumOfSquares();
-            if (currResult.getNumActualClusters() == numClusters && wcss < Float.MAX_VALUE) {
-                if (wcss < wcssLimit) {
-                    wcssLimit = wcss;
-                    bestAssignments = currResult.getAssignments(matrix.getNumRows());
-                    bestClusters = currResult.getFinalCompartmentsClone();
-                }
-                attemptsWhichWorked++;
-            }
-            if (++attempt > 200 && bestAssignments != null) break;
-        }
-        exportKMeansClusteringResults(z, prefix, useKMedians, bestClusters, null);
-        return bestAssignments;
+        KmeansResult bestResult = getBestResult(kmeansRunner, numClusters);
+        if (bestResult == null) return null;
+        exportKMeansClusteringResults(z, prefix, useKMedians, bestResult.getFinalCompartments(matrix), null);
+        return bestResult.getAssignments();
     }
 }
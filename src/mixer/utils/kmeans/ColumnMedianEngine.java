@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.kmeans;
+
+import java.util.Arrays;
+
+/**
+ * NaN-ignoring column medians over a subset of rows, via in-place quickselect.
+ * Columns are processed in small blocks so each member row is read once per block
+ * rather than once per column. One engine should be kept per thread; its scratch
+ * buffers only grow, so repeated center updates do not allocate.
+ */
+public class ColumnMedianEngine {
+
+    private static final int BLOCK = 16;
+    private final float[][] scratch = new float[BLOCK][0];
+    private final int[] sizes = new int[BLOCK];
+
+    public void updateCenter(float[][] matrix, int[] members, float[] center) {
+        updateCenter(matrix, members, center, 0, center.length);
+    }
+
+    /**
+     * Only updates center[startCol] to center[endCol - 1]
+     */
+    public void updateCenter(float[][] matrix, int[] members, float[] center, int startCol, int endCol) {
+        ensureCapacity(members.length);
+        for (int j0 = startCol; j0 < endCol; j0 += BLOCK) {
+            int width = Math.min(BLOCK, endCol - j0);
+            Arrays.fill(sizes, 0);
+            for (int i : members) {
+                float[] row = matrix[i];
+                for (int b = 0; b < width; b++) {
+                    float val = row[j0 + b];
+                    if (!Float.isNaN(val)) {
+                        scratch[b][sizes[b]++] = val;
+                    }
+                }
+            }
+            for (int b = 0; b < width; b++) {
+                if (sizes[b] > 0) {
+                    center[j0 + b] = median(scratch[b], sizes[b]);
+                } else {
+                    center[j0 + b] = Float.NaN;
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (scratch[0].length < n) {
+            for (int b = 0; b < BLOCK; b++) {
+                scratch[b] = new float[n];
+            }
+        }
+    }
+
+    /**
+     * Median of the first n entries; the entries are reordered in place.
+     */
+    public static float median(float[] values, int n) {
+        int k = n / 2;
+        float upper = select(values, n, k);
+        if (n % 2 == 1) {
+            return upper;
+        }
+        float lower = values[0];
+        for (int i = 1; i < k; i++) {
+            if (values[i] > lower) lower = values[i];
+        }
+        return (lower + upper) / 2f;
+    }
+
+    /**
+     * @return the k-th smallest of the first n entries, leaving smaller entries to its left
+     */
+    private static float select(float[] values, int n, int k) {
+        int left = 0;
+        int right = n - 1;
+        while (right > left) {
+            int mid = (left + right) >>> 1;
+            if (values[mid] < values[left]) swap(values, mid, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[mid]) swap(values, right, mid);
+            float pivot = values[mid];
+
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private static void swap(float[] values, int i, int j) {
+        float temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.kmeans;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.SmartTools;
+import robust.concurrent.kmeans.clustering.Cluster;
+import robust.concurrent.kmeans.clustering.SmartInitialization;
+import robust.concurrent.kmeans.metric.RobustManhattanDistance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full-batch kmedians with the same seeding and iteration as RobustConcurrentKMedians:
+ * SmartInitialization seeds, cached L1 distances that are only recomputed for clusters whose
+ * membership changed, empty clusters dropped from assignment, and iteration until no row moves.
+ * Only the center update differs: it goes through one ColumnMedianEngine per thread, created
+ * once per run, instead of boxing every column into a list.
+ */
+public class ConcurrentKMedians {
+
+    private static final int COLS_PER_TASK = 64;
+    private final float[][] matrix;
+    private final int numClusters;
+    private final int maxIters;
+    private final long seed;
+    private final int numThreads = Runtime.getRuntime().availableProcessors();
+    private final ColumnMedianEngine[] engines = new ColumnMedianEngine[numThreads];
+    private float[][] centers;
+    private float[][] distances;
+    private int[] assignments;
+    private int[][] previousMembers, currentMembers;
+    private boolean[] needsUpdate, considerForAssignment;
+    private double withinClusterDistanceSum = 0;
+
+    public ConcurrentKMedians(float[][] matrix, int numClusters, int maxIters, long seed) {
+        this.matrix = matrix;
+        this.numClusters = numClusters;
+        this.maxIters = maxIters;
+        this.seed = seed;
+        for (int t = 0; t < numThreads; t++) {
+            engines[t] = new ColumnMedianEngine();
+        }
+    }
+
+    public Cluster[] run() {
+        initCenters();
+        distances = new float[matrix.length][numClusters];
+        computeDistances();
+        makeAssignments();
+        int moves;
+        int iter = 0;
+        do {
+            computeCenters();
+            computeDistances();
+            moves = makeAssignments();
+            iter++;
+        } while (moves > 0 && iter < maxIters);
+        if (SmartTools.printVerboseComments) {
+            System.out.println("KMedians finished after " + iter + " iterations");
+        }
+
+        List<Cluster> clusters = new ArrayList<>(numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            if (currentMembers[c].length > 0) {
+                clusters.add(new Cluster(currentMembers[c], centers[c]));
+            }
+        }
+        distances = null;
+        return clusters.toArray(new Cluster[0]);
+    }
+
+    /**
+     * @return sum of the L1 distances between each row and its center, from the last assignment pass
+     */
+    public double getWithinClusterDistanceSum() {
+        return withinClusterDistanceSum;
+    }
+
+    private void initCenters() {
+        Random random = new Random(seed);
+        assignments = new int[matrix.length];
+        Arrays.fill(assignments, -1);
+        int[] initial = new SmartInitialization(matrix, numClusters, random.nextInt(matrix.length),
+                true).getSmartClusterInitialization();
+        centers = new float[numClusters][];
+        previousMembers = new int[numClusters][0];
+        currentMembers = new int[numClusters][];
+        needsUpdate = new boolean[numClusters];
+        considerForAssignment = new boolean[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            centers[c] = matrix[initial[c]].clone();
+            currentMembers[c] = new int[]{initial[c]};
+            assignments[initial[c]] = c;
+            needsUpdate[c] = true;
+            considerForAssignment[c] = true;
+        }
+    }
+
+    private void computeDistances() {
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int i = index.getAndIncrement();
+            while (i < matrix.length) {
+                for (int c = 0; c < numClusters; c++) {
+                    if (considerForAssignment[c] && needsUpdate[c]) {
+                        distances[i][c] = RobustManhattanDistance.SINGLETON.distance(matrix[i], centers[c]);
+                    }
+                }
+                i = index.getAndIncrement();
+            }
+        });
+    }
+
+    private int makeAssignments() {
+        for (int c = 0; c < numClusters; c++) {
+            if (considerForAssignment[c]) {
+                previousMembers[c] = currentMembers[c];
+            }
+        }
+
+        AtomicInteger index = new AtomicInteger(0);
+        AtomicInteger moves = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int localMoves = 0;
+            int i = index.getAndIncrement();
+            while (i < matrix.length) {
+                int nearest = -1;
+                double bestDist = Double.MAX_VALUE;
+                for (int c = 0; c < numClusters; c++) {
+                    if (considerForAssignment[c] && distances[i][c] < bestDist) {
+                        bestDist = distances[i][c];
+                        nearest = c;
+                    }
+                }
+                if (assignments[i] != nearest) {
+                    assignments[i] = nearest;
+                    localMoves++;
+                }
+                i = index.getAndIncrement();
+            }
+            moves.addAndGet(localMoves);
+        });
+
+        int[][] members = ClusterTools.groupByCluster(assignments, numClusters);
+        double distanceSum = 0;
+        for (int c = 0; c < numClusters; c++) {
+            if (considerForAssignment[c]) {
+                currentMembers[c] = members[c];
+                for (int i : members[c]) {
+                    distanceSum += distances[i][c];
+                }
+            }
+        }
+        withinClusterDistanceSum = distanceSum;
+        return moves.get();
+    }
+
+    private void computeCenters() {
+        for (int c = 0; c < numClusters; c++) {
+            if (considerForAssignment[c]) {
+                if (currentMembers[c].length > 0) {
+                    needsUpdate[c] = !Arrays.equals(previousMembers[c], currentMembers[c]);
+                } else {
+                    considerForAssignment[c] = false;
+                }
+            }
+        }
+
+        int numCols = matrix[0].length;
+        int tasksPerCluster = (numCols + COLS_PER_TASK - 1) / COLS_PER_TASK;
+        int numTasks = numClusters * tasksPerCluster;
+        AtomicInteger threadSlot = new AtomicInteger(0);
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            ColumnMedianEngine engine = engines[threadSlot.getAndIncrement()];
+            int t = index.getAndIncrement();
+            while (t < numTasks) {
+                int c = t / tasksPerCluster;
+                if (considerForAssignment[c] && needsUpdate[c]) {
+                    int startCol = (t % tasksPerCluster) * COLS_PER_TASK;
+                    int endCol = Math.min(startCol + COLS_PER_TASK, numCols);
+                    engine.updateCenter(matrix, currentMembers[c], centers[c], startCol, endCol);
+                }
+                t = index.getAndIncrement();
+            }
+        });
+    }
+}
@@ -27,29 +27,30 @@ package mixer.utils.kmeans;
 import javastraw.reader.basics.ChromosomeHandler;
 import mixer.SmartTools;
 import mixer.utils.drive.FinalMatrix;
+import mixer.utils.drive.QuantizedMatrix;
+import mixer.utils.tracks.ARITools;
 import robust.concurrent.kmeans.clustering.Cluster;
 import robust.concurrent.kmeans.clustering.KMeansListener;
 import robust.concurrent.kmeans.clustering.RobustConcurrentKMeans;
-import robust.concurrent.kmeans.clustering.RobustConcurrentKMedians;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GenomeWideKmeansRunner {
 
+    public static int miniBatchSize = 0;
+    public static boolean useQuantized = false;
     private final float[][] matrix;
+    private QuantizedMatrix quantizedMatrix = null;
     private final ChromosomeHandler chromosomeHandler;
     private final FinalMatrix interMatrix;
     private final AtomicBoolean thisRunIsNotDone = new AtomicBoolean(true);
     private KmeansResult result = null;
 
-    private final boolean useCorrMatrix;
     private final boolean useKMedians;
 
     public GenomeWideKmeansRunner(ChromosomeHandler chromosomeHandler,
-                                  FinalMatrix interMatrix,
-                                  boolean useCorrMatrix, boolean useKmedians) {
-        this.useCorrMatrix = useCorrMatrix;
+                                  FinalMatrix interMatrix, boolean useKmedians) {
         this.interMatrix = interMatrix;
         matrix = interMatrix.matrix;
         this.chromosomeHandler = chromosomeHandler;
@@ -69,14 +70,35 @@ public class GenomeWideKmeansRunner {
             }
 
             int numClusters = result.getNumClustersDesired();
-            RobustConcurrentKMeans kMeans;
+            if (miniBatchSize > 0 && miniBatchSize < matrix.length) {
+                MiniBatchKMeans kMeans = new MiniBatchKMeans(matrix, numClusters, maxIters, seed,
+                        miniBatchSize, useKMedians);
+                processCompletedClusters(kMeans.run(), kMeans.getWithinClusterDistanceSum());
+                return;
+            }
+
+            if (useQuantized) {
+                if (quantizedMatrix == null) {
+                    quantizedMatrix = new QuantizedMatrix(matrix);
+                }
+                QuantizedKMeans kMeans = new QuantizedKMeans(quantizedMatrix, numClusters, maxIters,
+                        seed, useKMedians);
+                Cluster[] clusters = kMeans.run();
+                if (SmartTools.printVerboseComments) {
+                    compareWithFloatPath(kMeans, clusters);
+                }
+                processCompletedClusters(clusters, kMeans.getWithinClusterDistanceSum());
+                return;
+            }
+
             if (useKMedians) {
-                kMeans = new RobustConcurrentKMedians(matrix, numClusters, maxIters, seed,
-                        SmartTools.NUM_ENTRIES_TO_SKIP_MEDIAN);
-            } else {
-                kMeans = new RobustConcurrentKMeans(matrix, numClusters, maxIters, seed);
+                ConcurrentKMedians kMedians = new ConcurrentKMedians(matrix, numClusters, maxIters, seed);
+                processCompletedClusters(kMedians.run(), kMedians.getWithinClusterDistanceSum());
+                return;
             }
 
+            RobustConcurrentKMeans kMeans = new RobustConcurrentKMeans(matrix, numClusters, maxIters, seed);
+
             KMeansListener kMeansListener = new KMeansListener() {
                 @Override
                 public void kmeansMessage(String s) {
@@ -87,10 +109,7 @@ public class GenomeWideKmeansRunner {
 
                 @Override
                 public void kmeansComplete(Cluster[] preSortedClusters) {
-                    Cluster[] clusters = ClusterTools.getSortedClusters(preSortedClusters);
-                    System.out.print(".");
-                    result.processResultAndUpdateScoringMetrics(clusters, interMatrix, useKMedians, useCorrMatrix);
-                    thisRunIsNotDone.set(false);
+                    processCompletedClusters(preSortedClusters, Double.NaN);
                 }
 
                 @Override
@@ -106,6 +125,33 @@ public class GenomeWideKmeansRunner {
         waitUntilDone();
     }
 
+    /**
+     * reruns the same seeds and iterations on the float rows and reports the ARI against the
+     * quantized result; only used with verbose output since it doubles the cost of the run
+     */
+    private void compareWithFloatPath(QuantizedKMeans kMeans, Cluster[] quantizedClusters) {
+        Cluster[] floatClusters = kMeans.runOnFloatRows(matrix);
+        double ari = ARITools.getARI(toAssignments(quantizedClusters), toAssignments(floatClusters));
+        System.out.println("Quantized vs float clustering ARI: " + ari);
+    }
+
+    private int[] toAssignments(Cluster[] clusters) {
+        int[] assignments = new int[matrix.length];
+        for (int c = 0; c < clusters.length; c++) {
+            for (int i : clusters[c].getMemberIndexes()) {
+                assignments[i] = c;
+            }
+        }
+        return assignments;
+    }
+
+    private void processCompletedClusters(Cluster[] preSortedClusters, double sumOfDistances) {
+        Cluster[] clusters = ClusterTools.getSortedClusters(preSortedClusters);
+        System.out.print(".");
+        result.processResultAndUpdateScoringMetrics(clusters, interMatrix, useKMedians, sumOfDistances);
+        thisRunIsNotDone.set(false);
+    }
+
     private void waitUntilDone() {
         while (thisRunIsNotDone.get()) {
             System.out.print("*");
@@ -26,30 +26,29 @@ package mixer.utils.kmeans;
 
 import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.tools.ParallelizationTools;
 import mixer.SmartTools;
 import mixer.utils.drive.FinalMatrix;
 import mixer.utils.similaritymeasures.RobustCorrelationSimilarity;
-import mixer.utils.similaritymeasures.RobustEuclideanDistance;
-import mixer.utils.similaritymeasures.RobustManhattanDistance;
 import mixer.utils.tracks.SubcompartmentInterval;
 import robust.concurrent.kmeans.clustering.Cluster;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
 
 public class KmeansResult {
 
     private static final int MIN_EXPECTED_CLUSTER_SIZE = 5;
     private final int numClustersDesired;
-    private final GenomeWide1DList<SubcompartmentInterval> finalCompartments;
-    private final List<List<Integer>> indicesMap = new ArrayList<>();
+    private final ChromosomeHandler chromosomeHandler;
+    private int[] assignments = new int[0];
     private int numActualClusters = 0;
     private double wcss = 0;
 
     public KmeansResult(int numClusters, ChromosomeHandler chromosomeHandler) {
         numClustersDesired = numClusters;
-        finalCompartments = new GenomeWide1DList<>(chromosomeHandler);
+        this.chromosomeHandler = chromosomeHandler;
     }
 
     public int getNumClustersDesired() {
@@ -64,15 +63,24 @@ public class KmeansResult {
         return wcss;
     }
 
-    public GenomeWide1DList<SubcompartmentInterval> getFinalCompartmentsClone() {
-        return finalCompartments.deepClone();
+    /**
+     * Genomic intervals are only built on request, so only the kept restart pays for them.
+     * Cluster IDs are 1-based, in order of decreasing cluster size.
+     */
+    public GenomeWide1DList<SubcompartmentInterval> getFinalCompartments(FinalMatrix matrix) {
+        return matrix.getClusteringResult(assignments, 1, chromosomeHandler);
     }
 
+    /**
+     * @param sumOfDistances distance total from the final assignment pass, or NaN if it still needs computing
+     */
     public void processResultAndUpdateScoringMetrics(Cluster[] clusters, FinalMatrix matrix,
-                                                     boolean useKMedians, boolean useCorrMatrix) {
-        populateIndicesMap(clusters);
-        matrix.processKMeansClusteringResult(clusters, finalCompartments);
-        wcss = getWCSS(clusters, matrix, useCorrMatrix, useKMedians);
+                                                     boolean useKMedians, double sumOfDistances) {
+        populateAssignments(clusters, matrix.getNumRows());
+        if (Double.isNaN(sumOfDistances)) {
+            sumOfDistances = getSumOfDistances(clusters, matrix, useKMedians);
+        }
+        wcss = getWCSS(clusters, sumOfDistances);
         //clusterCorrMatrix = calculateCorrelations(clusters);
         //worstCorr = getMaxOffDiag(clusterCorrMatrix);
         numActualClusters = clusters.length;
@@ -89,21 +97,13 @@ public class KmeansResult {
         return maxVal;
     }
 
-    public double getWCSS(Cluster[] clusters, FinalMatrix matrix,
-                          boolean useCorr, boolean useKMedians) {
-        double withinClusterSumOfSquares = 0;
-
-        for (int z = 0; z < clusters.length; z++) {
-            Cluster cluster = clusters[z];
+    public double getWCSS(Cluster[] clusters, double sumOfDistances) {
+        double withinClusterSumOfSquares = sumOfDistances;
 
+        for (Cluster cluster : clusters) {
             if (cluster.getMemberIndexes().length < MIN_EXPECTED_CLUSTER_SIZE) {
                 withinClusterSumOfSquares += Float.MAX_VALUE;
             }
-
-            float[][] vectors = matrix.matrix;
-            for (int i : cluster.getMemberIndexes()) {
-                withinClusterSumOfSquares += getDistance(cluster.getCenter(), vectors[i], useKMedians);
-            }
         }
 
         withinClusterSumOfSquares = withinClusterSumOfSquares / clusters.length;
@@ -114,21 +114,34 @@ public class KmeansResult {
         return withinClusterSumOfSquares;
     }
 
-    private double getDistance(float[] center, float[] vector, boolean useKMedians) {
-        if (useKMedians) {
-            return RobustManhattanDistance.SINGLETON.distance(center, vector);
-        }
-        return RobustEuclideanDistance.getNonNanMeanSquaredError(center, vector);
+    /**
+     * Fallback when the clustering engine did not report distances from its final assignment pass
+     */
+    private double getSumOfDistances(Cluster[] clusters, FinalMatrix matrix, boolean useKMedians) {
+        float[][] vectors = matrix.matrix;
+        DoubleAdder sum = new DoubleAdder();
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            double localSum = 0;
+            int i = index.getAndIncrement();
+            while (i < assignments.length) {
+                if (assignments[i] > -1) {
+                    localSum += ClusterTools.getDistance(clusters[assignments[i]].getCenter(), vectors[i], useKMedians);
+                }
+                i = index.getAndIncrement();
+            }
+            sum.add(localSum);
+        });
+        return sum.sum();
     }
 
-    private void populateIndicesMap(Cluster[] clusters) {
-        indicesMap.clear();
-        for (Cluster cluster : clusters) {
-            List<Integer> group = new ArrayList<>();
-            for (int member : cluster.getMemberIndexes()) {
-                group.add(member);
+    private void populateAssignments(Cluster[] clusters, int numRows) {
+        assignments = new int[numRows];
+        Arrays.fill(assignments, -1);
+        for (int c = 0; c < clusters.length; c++) {
+            for (int i : clusters[c].getMemberIndexes()) {
+                assignments[i] = c;
             }
-            indicesMap.add(group);
         }
     }
 
@@ -146,16 +159,10 @@ public class KmeansResult {
         return matrix;
     }
 
-    public int[] getAssignments(int numRows) {
-        int[] result = new int[numRows];
-        Arrays.fill(result, -1);
-
-        for (int c = 0; c < indicesMap.size(); c++) {
-            for (int i : indicesMap.get(c)) {
-                result[i] = c;
-            }
-        }
-
-        return result;
+    /**
+     * @return cluster index for each row, or -1 if unassigned
+     */
+    public int[] getAssignments() {
+        return assignments;
     }
 }
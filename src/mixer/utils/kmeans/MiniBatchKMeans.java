@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.kmeans;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.SmartTools;
+import robust.concurrent.kmeans.clustering.Cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Mini-batch kmeans / kmedians for very tall matrices (e.g. genome-wide at 10kb or 5kb).
+ * Each iteration assigns a random batch of rows to the nearest center and moves the centers
+ * toward the batch means (or medians) with a per-column learning rate of 1 / (rows seen so far).
+ * Iterations stop when no center moves more than the tolerance, after which every row
+ * gets a full assignment pass so the clusters can be scored like a regular kmeans result.
+ */
+public class MiniBatchKMeans {
+
+    public static float CONVERGENCE_TOLERANCE = 1e-3f;
+    private static final int MIN_ITERS = 5;
+    private final float[][] matrix;
+    private final int numClusters;
+    private final int maxIters;
+    private final int batchSize;
+    private final boolean useKMedians;
+    private final Random generator;
+    private float[][] centers;
+    private final long[][] counts;
+    private double withinClusterDistanceSum = 0;
+
+    public MiniBatchKMeans(float[][] matrix, int numClusters, int maxIters, long seed,
+                           int batchSize, boolean useKMedians) {
+        this.matrix = matrix;
+        this.numClusters = numClusters;
+        this.maxIters = maxIters;
+        this.batchSize = Math.min(batchSize, matrix.length);
+        this.useKMedians = useKMedians;
+        this.generator = new Random(seed);
+        counts = new long[numClusters][matrix[0].length];
+    }
+
+    public Cluster[] run() {
+        centers = ClusterTools.getKMeansPlusPlusCenters(matrix, numClusters, 10 * batchSize,
+                generator, useKMedians);
+        int[] batch = new int[batchSize];
+        int[] batchAssignments = new int[batchSize];
+        int iter = 0;
+        float movement = Float.MAX_VALUE;
+        while (iter < maxIters && (iter < MIN_ITERS || movement > CONVERGENCE_TOLERANCE)) {
+            for (int b = 0; b < batchSize; b++) {
+                batch[b] = generator.nextInt(matrix.length);
+            }
+            assignRows(batch, batchAssignments);
+            movement = updateCenters(batch, batchAssignments);
+            iter++;
+        }
+        if (SmartTools.printVerboseComments) {
+            System.out.println("Mini-batch finished after " + iter + " iterations; max center shift " + movement);
+        }
+
+        int[] allRows = new int[matrix.length];
+        for (int i = 0; i < allRows.length; i++) {
+            allRows[i] = i;
+        }
+        int[] assignments = new int[matrix.length];
+        withinClusterDistanceSum = assignRows(allRows, assignments);
+        return generateFinalClusters(assignments);
+    }
+
+    /**
+     * @return sum of the distances between each row and its center, from the final full assignment pass
+     */
+    public double getWithinClusterDistanceSum() {
+        return withinClusterDistanceSum;
+    }
+
+    /**
+     * @return sum of the distances between each row and its nearest center
+     */
+    private double assignRows(int[] rows, int[] assignments) {
+        AtomicInteger index = new AtomicInteger(0);
+        DoubleAdder distanceSum = new DoubleAdder();
+        ParallelizationTools.launchParallelizedCode(() -> {
+            double localSum = 0;
+            int i = index.getAndIncrement();
+            while (i < rows.length) {
+                float[] vector = matrix[rows[i]];
+                int bestIndex = 0;
+                double bestDist = Double.MAX_VALUE;
+                for (int c = 0; c < numClusters; c++) {
+                    double dist = ClusterTools.getDistance(centers[c], vector, useKMedians);
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        bestIndex = c;
+                    }
+                }
+                assignments[i] = bestIndex;
+                localSum += bestDist;
+                i = index.getAndIncrement();
+            }
+            distanceSum.add(localSum);
+        });
+        return distanceSum.sum();
+    }
+
+    /**
+     * @return largest root-mean-square shift of any center during this batch
+     */
+    private float updateCenters(int[] batch, int[] batchAssignments) {
+        int[][] members = ClusterTools.groupByCluster(batch, batchAssignments, numClusters);
+        double[] shift = new double[numClusters];
+        int numCols = matrix[0].length;
+
+        AtomicInteger colIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            float[] scratch = new float[batchSize];
+            double[] localShift = new double[numClusters];
+            int j = colIndex.getAndIncrement();
+            while (j < numCols) {
+                for (int c = 0; c < numClusters; c++) {
+                    int n = 0;
+                    for (int i : members[c]) {
+                        float val = matrix[i][j];
+                        if (!Float.isNaN(val)) {
+                            scratch[n++] = val;
+                        }
+                    }
+                    if (n > 0) {
+                        float stat = useKMedians ? ColumnMedianEngine.median(scratch, n) : mean(scratch, n);
+                        counts[c][j] += n;
+                        float oldVal = centers[c][j];
+                        if (Float.isNaN(oldVal)) {
+                            centers[c][j] = stat;
+                        } else {
+                            centers[c][j] = oldVal + (stat - oldVal) * n / counts[c][j];
+                            float delta = centers[c][j] - oldVal;
+                            localShift[c] += delta * delta;
+                        }
+                    }
+                }
+                j = colIndex.getAndIncrement();
+            }
+            synchronized (shift) {
+                for (int c = 0; c < numClusters; c++) {
+                    shift[c] += localShift[c];
+                }
+            }
+        });
+
+        double maxShift = 0;
+        for (double s : shift) {
+            maxShift = Math.max(maxShift, Math.sqrt(s / numCols));
+        }
+        return (float) maxShift;
+    }
+
+    private float mean(float[] values, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+        }
+        return (float) (sum / n);
+    }
+
+    private Cluster[] generateFinalClusters(int[] assignments) {
+        int[][] members = ClusterTools.groupByCluster(assignments, numClusters);
+        List<Cluster> clusters = new ArrayList<>(numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            if (members[c].length > 0) {
+                clusters.add(new Cluster(members[c], centers[c]));
+            }
+        }
+        return clusters.toArray(new Cluster[0]);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.kmeans;
+
+import javastraw.tools.ParallelizationTools;
+import mixer.SmartTools;
+import mixer.utils.drive.QuantizedMatrix;
+import robust.concurrent.kmeans.clustering.Cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Full-batch kmeans/kmedians over a QuantizedMatrix.
+ * Assignments read the int8 codes directly; centers are kept in code units, so
+ * means are integer sums and medians come from a 256-bin histogram per column.
+ * Seeding is kmeans++ on a sample of rows decoded from the codes, so the float
+ * rows are never read; runOnFloatRows repeats the same iterations from the same
+ * seeds on the float rows, to measure what the quantization costs.
+ */
+public class QuantizedKMeans {
+
+    private static final int MAX_INIT_SAMPLE = 50000;
+    private static final int COLS_PER_TASK = 64;
+    private static final int NUM_BINS = 256;
+    private final QuantizedMatrix matrix;
+    private final int numClusters;
+    private final int maxIters;
+    private final Random generator;
+    private final boolean useKMedians;
+    private final int numThreads = Runtime.getRuntime().availableProcessors();
+    private final int[][][] histograms = new int[numThreads][][];
+    private double withinClusterDistanceSum = 0;
+    private float[][] initialCenters = null;
+
+    public QuantizedKMeans(QuantizedMatrix matrix, int numClusters, int maxIters,
+                           long seed, boolean useKMedians) {
+        this.matrix = matrix;
+        this.numClusters = numClusters;
+        this.maxIters = maxIters;
+        this.generator = new Random(seed);
+        this.useKMedians = useKMedians;
+        for (int t = 0; t < numThreads; t++) {
+            histograms[t] = new int[COLS_PER_TASK][NUM_BINS];
+        }
+    }
+
+    public Cluster[] run() {
+        initialCenters = getInitialCenters();
+        float[][] centers = new float[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            centers[c] = matrix.toCodeUnits(initialCenters[c]);
+        }
+        int[] assignments = new int[matrix.getNumRows()];
+        int moves = makeAssignments(centers, assignments, true);
+        int iter = 0;
+        while (moves > 0 && iter < maxIters) {
+            computeCenters(centers, ClusterTools.groupByCluster(assignments, numClusters));
+            moves = makeAssignments(centers, assignments, false);
+            iter++;
+        }
+        if (SmartTools.printVerboseComments) {
+            System.out.println("Quantized " + (useKMedians ? "KMedians" : "KMeans")
+                    + " finished after " + iter + " iterations");
+        }
+
+        int[][] members = ClusterTools.groupByCluster(assignments, numClusters);
+        List<Cluster> clusters = new ArrayList<>(numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            if (members[c].length > 0) {
+                clusters.add(new Cluster(members[c], toFloatUnits(centers[c])));
+            }
+        }
+        return clusters.toArray(new Cluster[0]);
+    }
+
+    /**
+     * Reference run for run(): same seeds, same iteration and stopping rule, but assignments
+     * and centers are computed exactly on the given float rows (the rows this matrix was built from)
+     */
+    public Cluster[] runOnFloatRows(float[][] rows) {
+        if (initialCenters == null) {
+            initialCenters = getInitialCenters();
+        }
+        float[][] centers = new float[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            centers[c] = initialCenters[c].clone();
+        }
+        ColumnMedianEngine engine = new ColumnMedianEngine();
+        int[] assignments = new int[rows.length];
+        int moves = makeFloatAssignments(rows, centers, assignments, true);
+        int iter = 0;
+        while (moves > 0 && iter < maxIters) {
+            int[][] members = ClusterTools.groupByCluster(assignments, numClusters);
+            for (int c = 0; c < numClusters; c++) {
+                if (members[c].length > 0) {
+                    if (useKMedians) {
+                        engine.updateCenter(rows, members[c], centers[c]);
+                    } else {
+                        updateMean(rows, members[c], centers[c]);
+                    }
+                }
+            }
+            moves = makeFloatAssignments(rows, centers, assignments, false);
+            iter++;
+        }
+
+        int[][] members = ClusterTools.groupByCluster(assignments, numClusters);
+        List<Cluster> clusters = new ArrayList<>(numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            if (members[c].length > 0) {
+                clusters.add(new Cluster(members[c], centers[c]));
+            }
+        }
+        return clusters.toArray(new Cluster[0]);
+    }
+
+    /**
+     * @return sum of the distances between each row and its center, from the last assignment pass
+     */
+    public double getWithinClusterDistanceSum() {
+        return withinClusterDistanceSum;
+    }
+
+    private float[][] getInitialCenters() {
+        int numRows = matrix.getNumRows();
+        float[][] sample = new float[Math.min(numRows, MAX_INIT_SAMPLE)][];
+        for (int s = 0; s < sample.length; s++) {
+            sample[s] = matrix.getRow(generator.nextInt(numRows));
+        }
+        return ClusterTools.getKMeansPlusPlusCenters(sample, numClusters, generator, useKMedians);
+    }
+
+    private int makeFloatAssignments(float[][] rows, float[][] centers, int[] assignments, boolean isFirstPass) {
+        AtomicInteger index = new AtomicInteger(0);
+        AtomicInteger moves = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int localMoves = 0;
+            int i = index.getAndIncrement();
+            while (i < rows.length) {
+                int bestIndex = 0;
+                double bestDist = Double.MAX_VALUE;
+                for (int c = 0; c < numClusters; c++) {
+                    double dist = ClusterTools.getDistance(centers[c], rows[i], useKMedians);
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        bestIndex = c;
+                    }
+                }
+                if (isFirstPass || assignments[i] != bestIndex) {
+                    assignments[i] = bestIndex;
+                    localMoves++;
+                }
+                i = index.getAndIncrement();
+            }
+            moves.addAndGet(localMoves);
+        });
+        return moves.get();
+    }
+
+    private static void updateMean(float[][] rows, int[] members, float[] center) {
+        double[] sums = new double[center.length];
+        int[] counts = new int[center.length];
+        for (int i : members) {
+            for (int j = 0; j < center.length; j++) {
+                float val = rows[i][j];
+                if (!Float.isNaN(val)) {
+                    sums[j] += val;
+                    counts[j]++;
+                }
+            }
+        }
+        for (int j = 0; j < center.length; j++) {
+            center[j] = counts[j] > 0 ? (float) (sums[j] / counts[j]) : Float.NaN;
+        }
+    }
+
+    private float[] toFloatUnits(float[] scaledCenter) {
+        float[] center = new float[scaledCenter.length];
+        for (int j = 0; j < center.length; j++) {
+            center[j] = scaledCenter[j] * matrix.scales[j];
+        }
+        return center;
+    }
+
+    private int makeAssignments(float[][] centers, int[] assignments, boolean isFirstPass) {
+        int numRows = matrix.getNumRows();
+        AtomicInteger index = new AtomicInteger(0);
+        AtomicInteger moves = new AtomicInteger(0);
+        DoubleAdder distanceSum = new DoubleAdder();
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int localMoves = 0;
+            double localSum = 0;
+            int i = index.getAndIncrement();
+            while (i < numRows) {
+                int bestIndex = 0;
+                double bestDist = Double.MAX_VALUE;
+                for (int c = 0; c < numClusters; c++) {
+                    double dist = matrix.getDistance(centers[c], i, useKMedians);
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        bestIndex = c;
+                    }
+                }
+                if (isFirstPass || assignments[i] != bestIndex) {
+                    assignments[i] = bestIndex;
+                    localMoves++;
+                }
+                localSum += bestDist;
+                i = index.getAndIncrement();
+            }
+            moves.addAndGet(localMoves);
+            distanceSum.add(localSum);
+        });
+        withinClusterDistanceSum = distanceSum.sum();
+        return moves.get();
+    }
+
+    private void computeCenters(float[][] centers, int[][] members) {
+        int numCols = matrix.getNumCols();
+        int tasksPerCluster = (numCols + COLS_PER_TASK - 1) / COLS_PER_TASK;
+        int numTasks = numClusters * tasksPerCluster;
+        AtomicInteger threadSlot = new AtomicInteger(0);
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int[][] counts = histograms[threadSlot.getAndIncrement()];
+            int t = index.getAndIncrement();
+            while (t < numTasks) {
+                int c = t / tasksPerCluster;
+                if (members[c].length > 0) {
+                    int startCol = (t % tasksPerCluster) * COLS_PER_TASK;
+                    int endCol = Math.min(startCol + COLS_PER_TASK, numCols);
+                    updateCenter(members[c], centers[c], startCol, endCol, counts);
+                }
+                t = index.getAndIncrement();
+            }
+        });
+    }
+
+    /**
+     * counts[j - startCol] is the histogram of codes for column j among the members;
+     * the mean and the median (middle pair averaged, as in ColumnMedianEngine) both read off it
+     */
+    private void updateCenter(int[] members, float[] center, int startCol, int endCol, int[][] counts) {
+        for (int j = startCol; j < endCol; j++) {
+            int[] bins = counts[j - startCol];
+            for (int b = 0; b < NUM_BINS; b++) {
+                bins[b] = 0;
+            }
+        }
+        for (int i : members) {
+            byte[] codes = matrix.data[i];
+            for (int j = startCol; j < endCol; j++) {
+                counts[j - startCol][codes[j] - Byte.MIN_VALUE]++;
+            }
+        }
+        for (int j = startCol; j < endCol; j++) {
+            int[] bins = counts[j - startCol];
+            int n = members.length - bins[QuantizedMatrix.NAN_CODE - Byte.MIN_VALUE];
+            if (n < 1) {
+                center[j] = Float.NaN;
+            } else if (useKMedians) {
+                center[j] = median(bins, n);
+            } else {
+                long sum = 0;
+                for (int b = 1; b < NUM_BINS; b++) {
+                    sum += (long) bins[b] * (b + Byte.MIN_VALUE);
+                }
+                center[j] = (float) sum / n;
+            }
+        }
+    }
+
+    private static float median(int[] bins, int n) {
+        int lowerRank = (n - 1) / 2;
+        int upperRank = n / 2;
+        int lower = Integer.MIN_VALUE;
+        int seen = 0;
+        for (int b = 1; b < NUM_BINS; b++) {
+            seen += bins[b];
+            if (lower == Integer.MIN_VALUE && seen > lowerRank) {
+                lower = b + Byte.MIN_VALUE;
+            }
+            if (seen > upperRank) {
+                return (lower + b + Byte.MIN_VALUE) / 2f;
+            }
+        }
+        return lower;
+    }
+}
@@ -28,7 +28,6 @@ import mixer.SmartTools;
 import robust.concurrent.kmeans.clustering.Cluster;
 import robust.concurrent.kmeans.clustering.KMeansListener;
 import robust.concurrent.kmeans.clustering.RobustConcurrentKMeans;
-import robust.concurrent.kmeans.clustering.RobustConcurrentKMedians;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -65,14 +64,17 @@ public class QuickCentroids {
     }
 
     public float[][] generateCentroids(int minSizeNeeded, boolean useKmedians) {
-        RobustConcurrentKMeans kMeans;
         if (useKmedians) {
-            kMeans = new RobustConcurrentKMedians(matrix, initialNumClusters, maxIters, generator.nextLong(),
-                    SmartTools.NUM_ENTRIES_TO_SKIP_MEDIAN);
-        } else {
-            kMeans = new RobustConcurrentKMeans(matrix, initialNumClusters, maxIters, generator.nextLong());
+            ConcurrentKMedians kMedians = new ConcurrentKMedians(matrix, initialNumClusters, maxIters,
+                    generator.nextLong());
+            convertClustersToFloatMatrix(kMedians.run(), minSizeNeeded);
+            System.out.print(".");
+            return centroids;
         }
 
+        RobustConcurrentKMeans kMeans = new RobustConcurrentKMeans(matrix, initialNumClusters, maxIters,
+                generator.nextLong());
+
         KMeansListener kMeansListener = new KMeansListener() {
             @Override
             public void kmeansMessage(String s) {
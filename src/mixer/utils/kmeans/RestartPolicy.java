@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.kmeans;
+
+/**
+ * Decides how many kmeans restarts to run for a given k.
+ * A restart is valid if it produced the requested number of clusters with a finite WCSS.
+ * After minRestarts valid restarts, stop once the best WCSS has not improved by more than
+ * a relative epsilon in the last patience restarts, or once maxRestarts valid restarts are done.
+ * maxAttempts bounds the total number of runs (valid or not), and an optional wall-clock
+ * budget per k stops early as soon as there is at least one valid result.
+ * By default minRestarts = maxRestarts = 20, the fixed count used before this policy, so the
+ * plateau test only applies once --restarts or --restart-patience lowers minRestarts.
+ */
+public class RestartPolicy {
+
+    public static final int EARLY_STOP_MIN_RESTARTS = 10;
+    public static int minRestarts = 20;
+    public static int maxRestarts = 20;
+    public static int maxAttempts = 200;
+    public static int patience = 5;
+    public static double epsilon = 1e-4;
+    public static long timeBudgetMillis = 0;
+
+    private final long startTime = System.currentTimeMillis();
+    private int attempts = 0;
+    private int validRestarts = 0;
+    private int restartsSinceImprovement = 0;
+    private double bestWCSS = Double.MAX_VALUE;
+    private double sumWCSS = 0;
+    private double sumSquaresWCSS = 0;
+    private String stopReason = "";
+
+    /**
+     * @return true if this wcss is the best seen so far
+     */
+    public boolean update(double wcss, boolean isValid) {
+        attempts++;
+        if (!isValid) {
+            return false;
+        }
+
+        validRestarts++;
+        sumWCSS += wcss;
+        sumSquaresWCSS += wcss * wcss;
+        if (wcss < bestWCSS * (1 - epsilon)) {
+            restartsSinceImprovement = 0;
+        } else {
+            restartsSinceImprovement++;
+        }
+        if (wcss < bestWCSS) {
+            bestWCSS = wcss;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean shouldContinue() {
+        if (attempts >= maxAttempts) {
+            stopReason = "max attempts";
+            return false;
+        }
+        if (validRestarts < 1) {
+            return true;
+        }
+        if (timeBudgetMillis > 0 && getElapsedMillis() > timeBudgetMillis) {
+            stopReason = "time budget";
+            return false;
+        }
+        if (validRestarts < minRestarts) {
+            return true;
+        }
+        if (validRestarts >= maxRestarts) {
+            stopReason = "max restarts";
+            return false;
+        }
+        if (restartsSinceImprovement >= patience) {
+            stopReason = "plateau";
+            return false;
+        }
+        return true;
+    }
+
+    public boolean hasValidResult() {
+        return validRestarts > 0;
+    }
+
+    private long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public String getSummary(int k) {
+        double mean = sumWCSS / validRestarts;
+        double std = Math.sqrt(Math.max(sumSquaresWCSS / validRestarts - mean * mean, 0));
+        return "k=" + k + " restarts: " + validRestarts + " valid / " + attempts + " attempts; best WCSS "
+                + bestWCSS + "; mean " + mean + " +/- " + std + "; stopped by " + stopReason
+                + " after " + getElapsedMillis() / 1000.0 + "s";
+    }
+}
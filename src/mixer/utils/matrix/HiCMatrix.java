@@ -35,20 +35,28 @@ abstract public class HiCMatrix {
 
     protected final NormalizationType norm;
     protected final int resolution;
-    protected final float[][] interMatrix;
+    protected final float[][] interMatrix; // null for sparse storage
     protected final Chromosome[] rowsChromosomes;
     protected final Chromosome[] colsChromosomes;
     protected final Dimension rowsDimension, colsDimension;
 
     public HiCMatrix(Dataset ds, NormalizationType norm, int resolution,
                      Chromosome[] rowsChromosomes, Chromosome[] colsChromosomes) {
+        this(ds, norm, resolution, rowsChromosomes, colsChromosomes, false);
+    }
+
+    /**
+     * @param isSparse skip the dense matrix; the subclass stores the entries and overrides getRowEntries
+     */
+    protected HiCMatrix(Dataset ds, NormalizationType norm, int resolution,
+                        Chromosome[] rowsChromosomes, Chromosome[] colsChromosomes, boolean isSparse) {
         this.norm = norm;
         this.resolution = resolution;
         this.rowsChromosomes = rowsChromosomes;
         this.colsChromosomes = colsChromosomes;
         rowsDimension = new Dimension(rowsChromosomes, resolution);
         colsDimension = new Dimension(colsChromosomes, resolution);
-        interMatrix = makeCleanScaledInterMatrix(ds);
+        interMatrix = isSparse ? null : makeCleanScaledInterMatrix(ds);
     }
 
 
@@ -87,10 +95,43 @@ abstract public class HiCMatrix {
         return colsChromosomes;
     }
 
+    /**
+     * dense matrix, or null when isSparse(); use getRowEntries to read either kind
+     */
     public float[][] getMatrix() {
         return interMatrix;
     }
 
+    public boolean isSparse() {
+        return interMatrix == null;
+    }
+
+    public int getNumRows() {
+        return rowsDimension.length;
+    }
+
+    public int getNumCols() {
+        return colsDimension.length;
+    }
+
+    /**
+     * fills entries with the column indices and values of the non-zero entries of a row;
+     * sparse storage hands out its own arrays, so callers must not modify them
+     */
+    public void getRowEntries(int row, RowEntries entries) {
+        float[] values = interMatrix[row];
+        entries.ensureCapacity(values.length);
+        int length = 0;
+        for (int j = 0; j < values.length; j++) {
+            if (values[j] != 0) {
+                entries.indices[length] = j;
+                entries.values[length] = values[j];
+                length++;
+            }
+        }
+        entries.length = length;
+    }
+
     public int[] getRowOffsets() {
         return rowsDimension.offset;
     }
@@ -36,17 +36,43 @@ import mixer.utils.shuffle.Partition;
 
 public class InterOnlyMatrix extends HiCMatrix {
 
+    public static double MAX_DENSE_MEMORY_FRACTION = 0.25;
+
     public InterOnlyMatrix(Dataset ds, NormalizationType norm, int resolution,
                            Chromosome[] rowsChromosomes, Chromosome[] colsChromosomes) {
         super(ds, norm, resolution, rowsChromosomes, colsChromosomes);
     }
 
+    protected InterOnlyMatrix(Dataset ds, NormalizationType norm, int resolution,
+                              Chromosome[] rowsChromosomes, Chromosome[] colsChromosomes, boolean isSparse) {
+        super(ds, norm, resolution, rowsChromosomes, colsChromosomes, isSparse);
+    }
+
+    /**
+     * dense when the full matrix fits in MAX_DENSE_MEMORY_FRACTION of the heap, sparse otherwise
+     */
     public static InterOnlyMatrix getMatrix(Dataset ds, NormalizationType norm, int resolution, Partition.Type mapType) {
         ChromosomeHandler chromosomeHandler = ds.getChromosomeHandler();
         ChromosomeArrayPair cPairs = Partition.getChromosomePartition(chromosomeHandler, mapType);
+        long denseBytes = 4L * new Dimension(cPairs.a, resolution).length * new Dimension(cPairs.b, resolution).length;
+        if (denseBytes > MAX_DENSE_MEMORY_FRACTION * Runtime.getRuntime().maxMemory()) {
+            return new SparseInterOnlyMatrix(ds, norm, resolution, cPairs.a, cPairs.b);
+        }
         return new InterOnlyMatrix(ds, norm, resolution, cPairs.a, cPairs.b);
     }
 
+    /**
+     * one matrix per map type, built once so many clusterings can be scored against them
+     */
+    public static InterOnlyMatrix[] getMatrices(Dataset ds, NormalizationType norm, int resolution,
+                                                Partition.Type[] mapTypes) {
+        InterOnlyMatrix[] matrices = new InterOnlyMatrix[mapTypes.length];
+        for (int y = 0; y < mapTypes.length; y++) {
+            matrices[y] = getMatrix(ds, norm, resolution, mapTypes[y]);
+        }
+        return matrices;
+    }
+
     protected void fillInChromosomeRegion(Dataset ds, float[][] matrix, MatrixZoomData zd, Chromosome chr1, int offsetIndex1,
                                           Chromosome chr2, int offsetIndex2, boolean needToFlip) {
 
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.matrix;
+
+/**
+ * Reusable view of the non-zero entries of one matrix row; the first length
+ * indices and values are valid
+ */
+public class RowEntries {
+    public int[] indices = new int[0];
+    public float[] values = new float[0];
+    public int length = 0;
+    private boolean isShared = false;
+
+    /**
+     * own arrays of at least the given capacity, never ones handed out by share
+     */
+    public void ensureCapacity(int capacity) {
+        if (isShared || indices.length < capacity) {
+            indices = new int[capacity];
+            values = new float[capacity];
+            isShared = false;
+        }
+    }
+
+    public void share(int[] indices, float[] values) {
+        this.indices = indices;
+        this.values = values;
+        this.length = indices.length;
+        isShared = true;
+    }
+}
@@ -24,19 +24,16 @@
 
 package mixer.utils.matrix;
 
-import mixer.utils.shuffle.scoring.KLDivergenceScoring;
-import mixer.utils.shuffle.scoring.VarianceScoring;
+import mixer.utils.shuffle.scoring.ShuffleScore;
+import org.apache.commons.math3.distribution.TDistribution;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 
 public class ScoreContainer {
 
-    private static final int VAR_SCORE_INDEX = 0;
-    private static final int ENTROPY_SCORE_INDEX = 1;
     private final String[] scoreTypes = {"Variation", "Relative Entropy"};
 
     private final double[][] baselines;
@@ -45,6 +42,12 @@ public class ScoreContainer {
     private final double[][] symmBaselines;
     private final double[][] symmShuffled;
     private final double[][] symmRatios;
+    private final double[][] batchRatios;
+    private final double[][] batchSymmRatios;
+    private final double[] batchM2;
+    private final int[] numBatches;
+    private final int[] roundsUsed;
+    private final boolean[] usedSummaryModel;
 
     public ScoreContainer(int numMaps, int numScores) {
         baselines = new double[numMaps][numScores];
@@ -53,49 +56,100 @@ public class ScoreContainer {
         symmBaselines = new double[numMaps][numScores];
         symmShuffled = new double[numMaps][numScores];
         symmRatios = new double[numMaps][numScores];
+        batchRatios = new double[numMaps][numScores];
+        batchSymmRatios = new double[numMaps][numScores];
+        batchM2 = new double[numMaps];
+        numBatches = new int[numMaps];
+        roundsUsed = new int[numMaps];
+        usedSummaryModel = new boolean[numMaps];
     }
 
-    public static double[] updateAggMatrixScores(float[][] matrix, ShuffledIndices rowBounds, ShuffledIndices colBounds,
-                                                 boolean isBaseline, boolean useSymmetry) {
-        double[] scores = new double[2];
-        if (isBaseline) {
-            ShuffledIndices rowBounds2 = new ShuffledIndices(new ArrayList<>(), new Integer[]{0, matrix.length}, new Integer[]{0});
-            ShuffledIndices colBounds2 = new ShuffledIndices(new ArrayList<>(), new Integer[]{0, matrix[0].length}, new Integer[]{0});
-            scores[VAR_SCORE_INDEX] = (new VarianceScoring(matrix, rowBounds2, colBounds2, useSymmetry)).score();
-            scores[ENTROPY_SCORE_INDEX] = (new KLDivergenceScoring(matrix, rowBounds2, colBounds2, true, useSymmetry)).score();
-        } else {
-            scores[VAR_SCORE_INDEX] = (new VarianceScoring(matrix, rowBounds, colBounds, useSymmetry)).score();
-            scores[ENTROPY_SCORE_INDEX] = (new KLDivergenceScoring(matrix, rowBounds, colBounds, true, useSymmetry)).score();
-        }
-        return scores;
+    /**
+     * the shuffled scores of this map were simulated by SummaryChicEngine; noted in the score files
+     */
+    public void markSummaryModel(int mapIndex) {
+        usedSummaryModel[mapIndex] = true;
     }
 
     public void calculateRatios() {
         for (int y = 0; y < ratios.length; y++) {
             for (int l = 0; l < ratios[0].length; l++) {
-                ratios[y][l] = baselines[y][l] / shuffled[y][l];
-                symmRatios[y][l] = symmBaselines[y][l] / symmShuffled[y][l];
+                if (numBatches[y] > 0) {
+                    ratios[y][l] = batchRatios[y][l];
+                    symmRatios[y][l] = batchSymmRatios[y][l];
+                } else {
+                    ratios[y][l] = baselines[y][l] / shuffled[y][l];
+                    symmRatios[y][l] = symmBaselines[y][l] / symmShuffled[y][l];
+                }
                 // baseline/shuffled so that bigger is better
             }
         }
     }
 
     public void updateAggregateScores(AggregateMatrix aggregate, ShuffledIndices[] globalAllIndices, int mapIndex) {
-        float[][] aggMatrix = aggregate.getFloatMatrix();
-        baselines[mapIndex] = updateAggMatrixScores(aggMatrix, globalAllIndices[0],
-                globalAllIndices[1], true, false);
-        shuffled[mapIndex] = updateAggMatrixScores(aggMatrix, globalAllIndices[0],
-                globalAllIndices[1], false, false);
-        symmBaselines[mapIndex] = updateAggMatrixScores(aggMatrix, globalAllIndices[0],
-                globalAllIndices[1], true, true);
-        symmShuffled[mapIndex] = updateAggMatrixScores(aggMatrix, globalAllIndices[0],
-                globalAllIndices[1], false, true);
+        ShuffleScore scores = new ShuffleScore(aggregate.getFloatMatrix(), globalAllIndices[0],
+                globalAllIndices[1], true);
+        baselines[mapIndex] = scores.getScores(true, false);
+        shuffled[mapIndex] = scores.getScores(false, false);
+        symmBaselines[mapIndex] = scores.getScores(true, true);
+        symmShuffled[mapIndex] = scores.getScores(false, true);
+    }
+
+    /**
+     * Adaptive mode: every batch (the mean of a fixed number of shuffle rounds) is scored on its
+     * own and the reported values are running means over batches. The score of an aggregate grows
+     * with the number of rounds averaged into it, so only equal-sized batches keep the estimate
+     * independent of how many batches were needed.
+     */
+    public void addBatchScores(AggregateMatrix batch, ShuffledIndices[] globalAllIndices, int mapIndex,
+                               int numRounds) {
+        ShuffleScore scores = new ShuffleScore(batch.getFloatMatrix(), globalAllIndices[0],
+                globalAllIndices[1], true);
+        double[] baseline = scores.getScores(true, false);
+        double[] shuffle = scores.getScores(false, false);
+        double[] symmBaseline = scores.getScores(true, true);
+        double[] symmShuffle = scores.getScores(false, true);
+
+        int n = ++numBatches[mapIndex];
+        roundsUsed[mapIndex] += numRounds;
+        double previousMean = batchRatios[mapIndex][ShuffleScore.VAR_SCORE_INDEX];
+        for (int l = 0; l < baseline.length; l++) {
+            baselines[mapIndex][l] += (baseline[l] - baselines[mapIndex][l]) / n;
+            shuffled[mapIndex][l] += (shuffle[l] - shuffled[mapIndex][l]) / n;
+            symmBaselines[mapIndex][l] += (symmBaseline[l] - symmBaselines[mapIndex][l]) / n;
+            symmShuffled[mapIndex][l] += (symmShuffle[l] - symmShuffled[mapIndex][l]) / n;
+            batchRatios[mapIndex][l] += (baseline[l] / shuffle[l] - batchRatios[mapIndex][l]) / n;
+            batchSymmRatios[mapIndex][l] += (symmBaseline[l] / symmShuffle[l] - batchSymmRatios[mapIndex][l]) / n;
+        }
+        double score = baseline[ShuffleScore.VAR_SCORE_INDEX] / shuffle[ShuffleScore.VAR_SCORE_INDEX];
+        batchM2[mapIndex] += (score - previousMean) * (score - batchRatios[mapIndex][ShuffleScore.VAR_SCORE_INDEX]);
+    }
+
+    public int getNumBatches(int mapIndex) {
+        return numBatches[mapIndex];
+    }
+
+    public double getBatchScore(int mapIndex) {
+        return batchRatios[mapIndex][ShuffleScore.VAR_SCORE_INDEX];
+    }
+
+    /**
+     * 95% confidence half-width of the main (variance) score over the batches, using the
+     * Student t critical value for n - 1 degrees of freedom; NaN with fewer than 2
+     */
+    public double getHalfWidth(int mapIndex) {
+        int n = numBatches[mapIndex];
+        if (n < 2) return Double.NaN;
+        double t95 = new TDistribution(null, n - 1).inverseCumulativeProbability(0.975);
+        return t95 * Math.sqrt(batchM2[mapIndex] / (n - 1) / n);
     }
 
     public void savePlotsAndResults(File outfolder, String prefix, String[] names) {
         try {
-            writeToFile(outfolder, "aggregate_scores_" + prefix + "_main.txt", shuffled, baselines, ratios, names);
-            writeToFile(outfolder, "aggregate_scores_" + prefix + "_symm.txt", symmShuffled, symmBaselines, symmRatios, names);
+            writeToFile(outfolder, "aggregate_scores_" + prefix + "_main.txt", shuffled, baselines, ratios, names,
+                    true);
+            writeToFile(outfolder, "aggregate_scores_" + prefix + "_symm.txt", symmShuffled, symmBaselines, symmRatios,
+                    names, false);
         } catch (Exception ee) {
             System.err.println("Unable to write results to text file");
         }
@@ -103,25 +157,34 @@ public class ScoreContainer {
 
     public double getDirectScore(boolean getSymmetric, int mapTypeIndex) {
         if (getSymmetric) {
-            return symmRatios[mapTypeIndex][VAR_SCORE_INDEX];
+            return symmRatios[mapTypeIndex][ShuffleScore.VAR_SCORE_INDEX];
         } else {
-            return ratios[mapTypeIndex][VAR_SCORE_INDEX];
+            return ratios[mapTypeIndex][ShuffleScore.VAR_SCORE_INDEX];
         }
     }
 
     private void writeToFile(File outfolder, String filename, double[][] shuffle, double[][] baseline, double[][] ratio,
-                             String[] names) throws IOException {
+                             String[] names, boolean includeInterval) throws IOException {
         FileWriter myWriter = new FileWriter(new File(outfolder, filename));
         double[] geometricMeans = new double[scoreTypes.length];
         Arrays.fill(geometricMeans, 1);
 
         for (int y = 0; y < ratio.length; y++) {
             myWriter.write(names[y] + "------------------\n");
+            if (usedSummaryModel[y]) {
+                myWriter.write("Shuffled scores simulated by the summary-statistics model (--summary-chic), "
+                        + "not exact shuffles\n\n");
+            }
             for (int z = 0; z < ratio[y].length; z++) {
                 myWriter.write("CHIC Score (" + scoreTypes[z] + ")\n");
                 myWriter.write("Shuffled  : " + shuffle[y][z] + "\n");
                 myWriter.write("Baseline  : " + baseline[y][z] + "\n");
-                myWriter.write("Score     : " + ratio[y][z] + "\n\n");
+                myWriter.write("Score     : " + ratio[y][z] + "\n");
+                if (includeInterval && z == ShuffleScore.VAR_SCORE_INDEX && roundsUsed[y] > 0) {
+                    myWriter.write("95% CI    : +/- " + getHalfWidth(y) + " (" + numBatches[y] + " batches, "
+                            + roundsUsed[y] + " rounds)\n");
+                }
+                myWriter.write("\n");
                 geometricMeans[z] *= ratio[y][z];
             }
             myWriter.write("----------------------------------------------------------------\n");
@@ -24,14 +24,12 @@
 
 package mixer.utils.matrix;
 
-import java.util.List;
-
 public class ShuffledIndices {
-    public final List<Integer> allIndices;
-    public final Integer[] boundaries;
-    public final Integer[] ids;
+    public final int[] allIndices;
+    public final int[] boundaries;
+    public final int[] ids;
 
-    public ShuffledIndices(List<Integer> allIndices, Integer[] boundaries, Integer[] ids) {
+    public ShuffledIndices(int[] allIndices, int[] boundaries, int[] ids) {
         this.allIndices = allIndices;
         this.boundaries = boundaries;
         this.ids = ids;
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.matrix;
+
+import javastraw.reader.Dataset;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.HiCFileTools;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Inter-chromosomal matrix that keeps only the non-zero entries of each row.
+ * Each chromosome pair is read from its contact records, so neither the dense matrix
+ * nor a dense tile per chromosome pair is ever allocated.
+ */
+public class SparseInterOnlyMatrix extends InterOnlyMatrix {
+
+    private final int[][] rowIndices;
+    private final float[][] rowValues;
+
+    public SparseInterOnlyMatrix(Dataset ds, NormalizationType norm, int resolution,
+                                 Chromosome[] rowsChromosomes, Chromosome[] colsChromosomes) {
+        super(ds, norm, resolution, rowsChromosomes, colsChromosomes, true);
+        rowIndices = new int[rowsDimension.length][];
+        rowValues = new float[rowsDimension.length][];
+        int[] rowLengths = new int[rowsDimension.length];
+
+        for (int i = 0; i < rowsChromosomes.length; i++) {
+            Chromosome chr1 = rowsChromosomes[i];
+            for (int j = 0; j < colsChromosomes.length; j++) {
+                Chromosome chr2 = colsChromosomes[j];
+                final MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, resolution);
+                if (zd == null) continue;
+
+                // records are indexed by the chromosome with the smaller index first
+                boolean needToFlip = chr2.getIndex() < chr1.getIndex();
+                fillInFromRecords(zd, rowsDimension.offset[i], colsDimension.offset[j], needToFlip, rowLengths);
+            }
+            System.out.print(".");
+        }
+        System.out.println(".");
+
+        for (int r = 0; r < rowIndices.length; r++) {
+            rowIndices[r] = rowIndices[r] == null ? new int[0] : Arrays.copyOf(rowIndices[r], rowLengths[r]);
+            rowValues[r] = rowValues[r] == null ? new float[0] : Arrays.copyOf(rowValues[r], rowLengths[r]);
+        }
+    }
+
+    private void fillInFromRecords(MatrixZoomData zd, int offsetIndex1, int offsetIndex2, boolean needToFlip,
+                                   int[] rowLengths) {
+        Iterator<ContactRecord> iterator = norm.getLabel().equalsIgnoreCase("none")
+                ? zd.getDirectIterator() : zd.getNormalizedIterator(norm);
+        while (iterator.hasNext()) {
+            ContactRecord cr = iterator.next();
+            float val = cr.getCounts();
+            // same clean up as the dense matrix
+            if (Float.isNaN(val) || Float.isInfinite(val) || Math.abs(val) < 1E-10) continue;
+            int row = offsetIndex1 + (needToFlip ? cr.getBinY() : cr.getBinX());
+            int col = offsetIndex2 + (needToFlip ? cr.getBinX() : cr.getBinY());
+            add(row, col, val, rowLengths);
+        }
+    }
+
+    private void add(int row, int col, float val, int[] rowLengths) {
+        int length = rowLengths[row];
+        if (rowIndices[row] == null) {
+            rowIndices[row] = new int[8];
+            rowValues[row] = new float[8];
+        } else if (length == rowIndices[row].length) {
+            rowIndices[row] = Arrays.copyOf(rowIndices[row], 2 * length);
+            rowValues[row] = Arrays.copyOf(rowValues[row], 2 * length);
+        }
+        rowIndices[row][length] = col;
+        rowValues[row][length] = val;
+        rowLengths[row] = length + 1;
+    }
+
+    @Override
+    public void getRowEntries(int row, RowEntries entries) {
+        entries.share(rowIndices[row], rowValues[row]);
+    }
+}
@@ -28,18 +28,24 @@ import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.type.NormalizationType;
+import javastraw.tools.ParallelizationTools;
 import mixer.utils.BedTools;
+import mixer.utils.matrix.HiCMatrix;
+import mixer.utils.matrix.InterOnlyMatrix;
 import mixer.utils.shuffle.Partition;
 import mixer.utils.shuffle.ShuffleAction;
 import mixer.utils.tracks.SliceUtils;
 import mixer.utils.tracks.SubcompartmentInterval;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class InternalShuffle {
+    /**
+     * Scores every (k, bed file) candidate in parallel against one shared inter matrix. Each
+     * candidate gets its own generator, seeded in (k, file) order, so the scores do not depend
+     * on scheduling; for each k the first file with the highest score wins.
+     */
     public static Map<Integer, GenomeWide1DList<SubcompartmentInterval>> determineBest(Map<Integer, List<String>> allBedFiles,
                                                                                        int resolution,
                                                                                        ChromosomeHandler handler,
@@ -50,26 +56,56 @@ public class InternalShuffle {
         Random generator = new Random(0);
 
         Partition.Type[] mapTypes = {Partition.Type.ODDS_VS_EVENS};
+        HiCMatrix[] interMatrices = InterOnlyMatrix.getMatrices(ds, norm, resolution, mapTypes);
 
-        Map<Integer, GenomeWide1DList<SubcompartmentInterval>> bestClusterings = new HashMap<>();
+        List<Integer> allK = new ArrayList<>(allBedFiles.keySet());
+        Collections.sort(allK);
+        List<String> candidates = new ArrayList<>();
+        for (int k : allK) {
+            candidates.addAll(allBedFiles.get(k));
+        }
+        long[] seeds = new long[candidates.size()];
+        for (int t = 0; t < seeds.length; t++) {
+            seeds[t] = generator.nextLong();
+        }
 
-        for (int k : allBedFiles.keySet()) {
-            List<String> bedFiles = allBedFiles.get(k);
-            double bestScore = 0;
-            GenomeWide1DList<SubcompartmentInterval> bestClustering = null;
-            for (String bedFile : bedFiles) {
+        double[] scores = new double[candidates.size()];
+        double[] halfWidths = new double[candidates.size()];
+        AtomicInteger currIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int t = currIndex.getAndIncrement();
+            while (t < scores.length) {
                 GenomeWide1DList<SubcompartmentInterval> subcompartments =
-                        BedTools.loadBedFileAtResolution(handler, bedFile, resolution);
-                ShuffleAction matrix = new ShuffleAction(ds, norm, resolution, compressionFactor, mapTypes);
-                matrix.runInterAnalysis(subcompartments, null, generator);
-                double score = matrix.getResult(0);
-                //System.out.println(score);
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestClustering = subcompartments;
+                        BedTools.loadBedFileAtResolution(handler, candidates.get(t), resolution);
+                ShuffleAction matrix = new ShuffleAction(ds, norm, resolution, compressionFactor, mapTypes,
+                        interMatrices, 1);
+                matrix.runInterAnalysis(subcompartments, null, new Random(seeds[t]));
+                scores[t] = matrix.getResult(0);
+                halfWidths[t] = matrix.getResultHalfWidth(0);
+                t = currIndex.getAndIncrement();
+            }
+        });
+
+        Map<Integer, GenomeWide1DList<SubcompartmentInterval>> bestClusterings = new HashMap<>();
+        int t = 0;
+        for (int k : allK) {
+            double bestScore = 0;
+            String bestBedFile = null;
+            int bestIndex = -1;
+            for (String bedFile : allBedFiles.get(k)) {
+                if (scores[t] > bestScore) {
+                    bestScore = scores[t];
+                    bestBedFile = bedFile;
+                    bestIndex = t;
                 }
+                t++;
             }
-            if (bestClustering != null) {
+            if (ShuffleAction.useAdaptiveRounds && bestIndex >= 0) {
+                reportSeparation(k, bestIndex, t - allBedFiles.get(k).size(), t, scores, halfWidths);
+            }
+            if (bestBedFile != null) {
+                GenomeWide1DList<SubcompartmentInterval> bestClustering =
+                        BedTools.loadBedFileAtResolution(handler, bestBedFile, resolution);
                 SliceUtils.collapseGWList(bestClustering);
                 bestClusterings.put(k, bestClustering);
             }
@@ -78,6 +114,26 @@ public class InternalShuffle {
         return bestClusterings;
     }
 
+    /**
+     * whether the best candidate's confidence interval overlaps the runner-up's
+     */
+    private static void reportSeparation(int k, int bestIndex, int start, int end,
+                                         double[] scores, double[] halfWidths) {
+        int runnerUp = -1;
+        for (int t = start; t < end; t++) {
+            if (t != bestIndex && (runnerUp < 0 || scores[t] > scores[runnerUp])) {
+                runnerUp = t;
+            }
+        }
+        String summary = "k=" + k + " best CHIC " + scores[bestIndex] + " +/- " + halfWidths[bestIndex];
+        if (runnerUp >= 0) {
+            boolean isSeparated = scores[bestIndex] - halfWidths[bestIndex] > scores[runnerUp] + halfWidths[runnerUp];
+            summary += "; runner-up " + scores[runnerUp] + " +/- " + halfWidths[runnerUp]
+                    + (isSeparated ? " (separated)" : " (intervals overlap)");
+        }
+        System.out.println(summary);
+    }
+
     public static Map<Integer, GenomeWide1DList<SubcompartmentInterval>> getDefault(Map<Integer, List<String>> allBedFiles,
                                                                                     int resolution,
                                                                                     ChromosomeHandler handler) {
@@ -27,6 +27,7 @@ package mixer.utils.refinement;
 import javastraw.feature1D.GenomeWide1DList;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.tools.MatrixTools;
+import javastraw.tools.ParallelizationTools;
 import mixer.utils.drive.FinalMatrix;
 import mixer.utils.similaritymeasures.SimilarityMetric;
 import mixer.utils.tracks.Concensus2DTools;
@@ -36,6 +37,7 @@ import mixer.utils.tracks.SubcompartmentInterval;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IterativeRefinement {
 
@@ -94,20 +96,41 @@ public class IterativeRefinement {
 
     private static List<NearestNeighbors> getNearestNeighbors(List<Integer> unassigned, float[][] matrix,
                                                               SimilarityMetric metric, int[] hubAssignment) {
-        List<NearestNeighbors> neighborhoods = new ArrayList<>(unassigned.size());
-        for (int i : unassigned) {
-            neighborhoods.add(new NearestNeighbors(i, matrix, metric, hubAssignment));
-        }
-        return neighborhoods;
+        return getNeighborhoodsInParallel(unassigned, matrix.length,
+                (i, scratch) -> new NearestNeighbors(i, matrix, metric, hubAssignment, scratch));
     }
 
     private static List<NearestNeighbors> getNearestNeighbors(List<Integer> unassigned,
                                                               float[][] matrixL1, float[][] matrixL2, int[] hubAssignment) {
-        List<NearestNeighbors> neighborhoods = new ArrayList<>(unassigned.size());
+        return getNeighborhoodsInParallel(unassigned, matrixL1.length,
+                (i, scratch) -> new NearestNeighbors(i, matrixL1, matrixL2, hubAssignment, scratch));
+    }
+
+    private interface NeighborhoodBuilder {
+        NearestNeighbors build(int index, NearestNeighbors.Scratch scratch);
+    }
+
+    /**
+     * @return neighborhoods in the same order as unassigned
+     */
+    private static List<NearestNeighbors> getNeighborhoodsInParallel(List<Integer> unassigned, int numRows,
+                                                                     NeighborhoodBuilder builder) {
+        int[] indices = new int[unassigned.size()];
+        int counter = 0;
         for (int i : unassigned) {
-            neighborhoods.add(new NearestNeighbors(i, matrixL1, matrixL2, hubAssignment));
+            indices[counter++] = i;
         }
-        return neighborhoods;
+        NearestNeighbors[] neighborhoods = new NearestNeighbors[indices.length];
+        AtomicInteger currIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            NearestNeighbors.Scratch scratch = new NearestNeighbors.Scratch(numRows);
+            int q = currIndex.getAndIncrement();
+            while (q < indices.length) {
+                neighborhoods[q] = builder.build(indices[q], scratch);
+                q = currIndex.getAndIncrement();
+            }
+        });
+        return new ArrayList<>(Arrays.asList(neighborhoods));
     }
 
     private static List<Integer> getUnassignedIndices(int[] hubAssignment) {
@@ -24,32 +24,42 @@
 
 package mixer.utils.refinement;
 
+import mixer.utils.common.ArrayTools;
 import mixer.utils.similaritymeasures.RobustEuclideanDistance;
 import mixer.utils.similaritymeasures.RobustManhattanDistance;
 import mixer.utils.similaritymeasures.SimilarityMetric;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-
-import java.util.HashSet;
-import java.util.Set;
 
 public class NearestNeighbors {
 
     private static final int percentile = 2;
     private final int index;
     private final double percentUnassigned;
-    private final Set<Integer> neighbors;
+    private final int[] neighbors; // sorted
+
+    /**
+     * per-thread buffers for the exact searches, sized to the number of rows
+     */
+    public static class Scratch {
+        private final double[] distances;
+        private final double[] sorted;
+
+        public Scratch(int numRows) {
+            distances = new double[numRows];
+            sorted = new double[numRows];
+        }
+    }
 
-    public NearestNeighbors(int index, float[][] matrixL1, float[][] matrixL2, int[] hubs) {
+    public NearestNeighbors(int index, float[][] matrixL1, float[][] matrixL2, int[] hubs, Scratch scratch) {
         this.index = index;
-        neighbors = getNearestN(index, matrixL1, RobustManhattanDistance.SINGLETON);
-        Set<Integer> neighbors2 = getNearestN(index, matrixL2, RobustEuclideanDistance.SINGLETON);
-        neighbors.retainAll(neighbors2);
+        int[] neighbors1 = getNearestN(index, matrixL1, RobustManhattanDistance.SINGLETON, scratch);
+        int[] neighbors2 = getNearestN(index, matrixL2, RobustEuclideanDistance.SINGLETON, scratch);
+        neighbors = ArrayTools.intersectSorted(neighbors1, neighbors2);
         percentUnassigned = setPercentUnassigned(hubs);
     }
 
-    public NearestNeighbors(int index, float[][] matrix, SimilarityMetric metric, int[] hubs) {
+    public NearestNeighbors(int index, float[][] matrix, SimilarityMetric metric, int[] hubs, Scratch scratch) {
         this.index = index;
-        neighbors = getNearestN(index, matrix, metric);
+        neighbors = getNearestN(index, matrix, metric, scratch);
         if (hubs != null) {
             percentUnassigned = setPercentUnassigned(hubs);
         } else {
@@ -57,34 +67,36 @@ public class NearestNeighbors {
         }
     }
 
-    private Set<Integer> getNearestN(int index, float[][] matrix, SimilarityMetric metric) {
-        double[] distances = new double[matrix.length];
+    /**
+     * @return sorted indices of the rows closer than the percentile cutoff
+     */
+    private static int[] getNearestN(int index, float[][] matrix, SimilarityMetric metric, Scratch scratch) {
+        double[] distances = scratch.distances;
         for (int r = 0; r < matrix.length; r++) {
             distances[r] = metric.distance(matrix[r], matrix[index]);
         }
         distances[index] = Double.MAX_VALUE;
-        double cutoff = getNearbyIndicesFromPercentile(distances);
+        double cutoff = ArrayTools.percentile(distances, percentile, scratch.sorted);
         return indicesLessThan(distances, cutoff);
     }
 
-    private Set<Integer> indicesLessThan(double[] distances, double cutoff) {
-        Set<Integer> indices = new HashSet<>();
+    private static int[] indicesLessThan(double[] distances, double cutoff) {
+        int counter = 0;
+        for (double v : distances) {
+            if (v < cutoff) {
+                counter++;
+            }
+        }
+        int[] indices = new int[counter];
+        counter = 0;
         for (int i = 0; i < distances.length; i++) {
             if (distances[i] < cutoff) {
-                indices.add(i);
+                indices[counter++] = i;
             }
         }
         return indices;
     }
 
-    private double getNearbyIndicesFromPercentile(double[] values) {
-        DescriptiveStatistics statistics = new DescriptiveStatistics();
-        for (double v : values) {
-            statistics.addValue(v);
-        }
-        return statistics.getPercentile(percentile);
-    }
-
     private double setPercentUnassigned(int[] hubs) {
         double notAssigned = 0;
         for (int i : neighbors) {
@@ -92,7 +104,7 @@ public class NearestNeighbors {
                 notAssigned++;
             }
         }
-        return notAssigned / neighbors.size();
+        return notAssigned / neighbors.length;
     }
 
     public double getPercentUnassigned() {
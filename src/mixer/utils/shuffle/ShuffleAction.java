@@ -34,11 +34,20 @@ import mixer.utils.tracks.SubcompartmentInterval;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ShuffleAction {
 
     private final static int NUM_SCORES = 2;
+    public static boolean useAdaptiveRounds = false;
+    // the same as numRounds, so a batch is one fixed-mode run and keeps every thread busy
+    public static int ROUNDS_PER_BATCH = 10;
+    public static int MIN_BATCHES = 3;
+    public static int MAX_ROUNDS = 60;
+    public static double RELATIVE_HALF_WIDTH = 0.005;
+    public static boolean useSummaryStatistics = false;
+    private static final AtomicBoolean warnedSummaryModelSkipped = new AtomicBoolean(false);
     private final Dataset ds;
     private final NormalizationType norm;
     private final int compressionFactor;
@@ -46,15 +55,39 @@ public class ShuffleAction {
     private final int numRounds = 10;
     private final Partition.Type[] mapTypes;
     private final ScoreContainer scoreContainer;
+    private final HiCMatrix[] interMatrices;
+    private final int numThreads;
 
     public ShuffleAction(Dataset ds, NormalizationType norm, int resolution, int compressionFactor,
                          Partition.Type[] maptypes) {
+        this(ds, norm, resolution, compressionFactor, maptypes, null,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param interMatrices prebuilt inter matrix for each map type, only read here so it can be
+     *                      shared across many ShuffleActions; null to load them from the dataset
+     * @param numThreads    threads for the shuffle rounds; 1 when the caller already runs many
+     *                      ShuffleActions in parallel (this also fixes the summation order)
+     */
+    public ShuffleAction(Dataset ds, NormalizationType norm, int resolution, int compressionFactor,
+                         Partition.Type[] maptypes, HiCMatrix[] interMatrices, int numThreads) {
+        this.interMatrices = interMatrices;
+        this.numThreads = numThreads;
         this.resolution = resolution;
         this.compressionFactor = compressionFactor;
         this.ds = ds;
         this.norm = norm;
         this.mapTypes = maptypes;
         this.scoreContainer = new ScoreContainer(mapTypes.length, NUM_SCORES);
+        if (useSummaryStatistics && !usesSummaryModel() && warnedSummaryModelSkipped.compareAndSet(false, true)) {
+            System.err.println("--summary-chic ignored: compression factor " + compressionFactor + " is below "
+                    + SummaryChicEngine.MIN_COMPRESSION_FACTOR + ", where the model is no faster; using exact shuffles");
+        }
+    }
+
+    private boolean usesSummaryModel() {
+        return useSummaryStatistics && compressionFactor >= SummaryChicEngine.MIN_COMPRESSION_FACTOR;
     }
 
     private static long[] getSeedsForRound(Random generator, int numRounds) {
@@ -68,13 +101,29 @@ public class ShuffleAction {
     public void runInterAnalysis(GenomeWide1DList<SubcompartmentInterval> subcompartments, File outfolder,
                                  Random generator) {
         for (int y = 0; y < mapTypes.length; y++) {
-            final HiCMatrix interMatrix = InterOnlyMatrix.getMatrix(ds, norm, resolution, mapTypes[y]);
-            Map<Integer, List<Integer>> clusterToRowIndices = CHICTools.populateCluster(interMatrix.getRowChromosomes(),
-                    interMatrix.getRowOffsets(), subcompartments, resolution);
-            Map<Integer, List<Integer>> clusterToColIndices = CHICTools.populateCluster(interMatrix.getColChromosomes(),
-                    interMatrix.getColOffsets(), subcompartments, resolution);
-            shuffleMap(interMatrix, clusterToRowIndices, clusterToColIndices, outfolder, mapTypes[y].toString(), y, generator);
+            final HiCMatrix interMatrix = interMatrices != null ? interMatrices[y]
+                    : InterOnlyMatrix.getMatrix(ds, norm, resolution, mapTypes[y]);
+            runInterAnalysis(interMatrix, y, subcompartments, outfolder, generator);
         }
+        calculateRatios();
+    }
+
+    /**
+     * scores a single map type against an inter matrix owned by the caller; once every map type
+     * has been run, calculateRatios() completes the analysis
+     */
+    public void runInterAnalysis(HiCMatrix interMatrix, int mapIndex,
+                                 GenomeWide1DList<SubcompartmentInterval> subcompartments, File outfolder,
+                                 Random generator) {
+        Map<Integer, List<Integer>> clusterToRowIndices = CHICTools.populateCluster(interMatrix.getRowChromosomes(),
+                interMatrix.getRowOffsets(), subcompartments, resolution);
+        Map<Integer, List<Integer>> clusterToColIndices = CHICTools.populateCluster(interMatrix.getColChromosomes(),
+                interMatrix.getColOffsets(), subcompartments, resolution);
+        shuffleMap(interMatrix, clusterToRowIndices, clusterToColIndices, outfolder, mapTypes[mapIndex].toString(),
+                mapIndex, generator);
+    }
+
+    public void calculateRatios() {
         scoreContainer.calculateRatios();
     }
 
@@ -92,28 +141,84 @@ public class ShuffleAction {
         return scoreContainer.getDirectScore(false, index);
     }
 
+    /**
+     * half-width of the 95% confidence interval around getResult(index); NaN unless adaptive.
+     * Adaptive scores are means over batches of ROUNDS_PER_BATCH rounds; with the default of 10
+     * each batch is scored like a fixed-mode run, so the two modes report comparable scores.
+     */
+    public double getResultHalfWidth(int index) {
+        return scoreContainer.getHalfWidth(index);
+    }
+
     private void shuffleMap(HiCMatrix interMatrix, Map<Integer, List<Integer>> clusterToRowIndices,
                             Map<Integer, List<Integer>> clusterToColIndices,
                             File outfolder, String name, int mapIndex, Random random) {
 
-        final AggregateMatrix aggregate = new AggregateMatrix();
-        AtomicInteger currRowIndex = new AtomicInteger(0);
-        long[] seeds = getSeedsForRound(random, numRounds);
+        long[] seeds = useAdaptiveRounds ? null : getSeedsForRound(random, numRounds);
+        Random seedGenerator = useAdaptiveRounds ? new Random(random.nextLong()) : null;
+
+        final int[] rowIDs = getSortedIDs(clusterToRowIndices);
+        final int[] colIDs = getSortedIDs(clusterToColIndices);
+        final int[][] rowClusters = toArrays(clusterToRowIndices, rowIDs);
+        final int[][] colClusters = toArrays(clusterToColIndices, colIDs);
 
         final ShuffledIndices[] globalAllIndices = new ShuffledIndices[2];
         Random gen = new Random(random.nextLong());
-        globalAllIndices[0] = getShuffledByClusterIndices(clusterToRowIndices, gen);
-        globalAllIndices[1] = getShuffledByClusterIndices(clusterToColIndices, gen);
+        globalAllIndices[0] = getShuffledByClusterIndices(rowClusters, rowIDs, gen);
+        globalAllIndices[1] = getShuffledByClusterIndices(colClusters, colIDs, gen);
+
+        final SummaryChicEngine engine = usesSummaryModel() ? new SummaryChicEngine(interMatrix,
+                rowClusters, colClusters, compressionFactor) : null;
+        if (engine != null) {
+            scoreContainer.markSummaryModel(mapIndex);
+        }
 
-        ParallelizationTools.launchParallelizedCode(() -> {
+        if (useAdaptiveRounds) {
+            AggregateMatrix aggregate = new AggregateMatrix();
+            int roundsUsed = 0;
+            while (roundsUsed + ROUNDS_PER_BATCH <= MAX_ROUNDS) {
+                AggregateMatrix batch = runRounds(interMatrix, engine, rowClusters, rowIDs, colClusters, colIDs,
+                        getSeedsForRound(seedGenerator, ROUNDS_PER_BATCH));
+                batch.scaleForNumberOfRounds(ROUNDS_PER_BATCH);
+                scoreContainer.addBatchScores(batch, globalAllIndices, mapIndex, ROUNDS_PER_BATCH);
+                aggregate.add(batch);
+                roundsUsed += ROUNDS_PER_BATCH;
+                if (scoreContainer.getNumBatches(mapIndex) >= MIN_BATCHES && scoreContainer.getHalfWidth(mapIndex)
+                        <= RELATIVE_HALF_WIDTH * Math.abs(scoreContainer.getBatchScore(mapIndex))) {
+                    break;
+                }
+            }
+            aggregate.scaleForNumberOfRounds(scoreContainer.getNumBatches(mapIndex));
+            if (outfolder != null) aggregate.export(outfolder, name);
+        } else {
+            AggregateMatrix aggregate = runRounds(interMatrix, engine, rowClusters, rowIDs, colClusters, colIDs,
+                    seeds);
+            aggregate.scaleForNumberOfRounds(numRounds);
+            if (outfolder != null) aggregate.export(outfolder, name);
+            scoreContainer.updateAggregateScores(aggregate, globalAllIndices, mapIndex);
+        }
+    }
+
+    /**
+     * sum (not mean) of the log compressed matrices of one shuffle round per seed;
+     * with an engine, the compressed matrices come from its summary statistics instead
+     */
+    private AggregateMatrix runRounds(HiCMatrix interMatrix, SummaryChicEngine engine,
+                                      int[][] rowClusters, int[] rowIDs,
+                                      int[][] colClusters, int[] colIDs, long[] seeds) {
+        final AggregateMatrix aggregate = new AggregateMatrix();
+        AtomicInteger currRowIndex = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
             int k = currRowIndex.getAndIncrement();
             AggregateMatrix aggregateForThread = new AggregateMatrix();
-            while (k < numRounds) {
+            while (k < seeds.length) {
                 Random generator = new Random(seeds[k]);
-                ShuffledIndices allRowIndices = getShuffledByClusterIndices(clusterToRowIndices, generator);
-                ShuffledIndices allColIndices = getShuffledByClusterIndices(clusterToColIndices, generator);
+                ShuffledIndices allRowIndices = getShuffledByClusterIndices(rowClusters, rowIDs, generator);
+                ShuffledIndices allColIndices = getShuffledByClusterIndices(colClusters, colIDs, generator);
 
-                double[][] matrix = getShuffledMatrix(interMatrix, allRowIndices.allIndices, allColIndices.allIndices);
+                double[][] matrix = engine != null
+                        ? engine.getCompressedMatrix(allRowIndices, allColIndices, generator)
+                        : getShuffledMatrix(interMatrix, allRowIndices.allIndices, allColIndices.allIndices);
                 FloatMatrixTools.log(matrix, 1);
 
                 aggregateForThread.add(matrix);
@@ -126,52 +231,128 @@ public class ShuffleAction {
                 }
             }
         });
+        return aggregate;
+    }
+
+    private static int[] getSortedIDs(Map<Integer, List<Integer>> clusterToIndices) {
+        int[] ids = new int[clusterToIndices.size()];
+        int k = 0;
+        for (Integer id : clusterToIndices.keySet()) {
+            ids[k++] = id;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
 
-        aggregate.scaleForNumberOfRounds(numRounds);
-        if (outfolder != null) aggregate.export(outfolder, name);
-        scoreContainer.updateAggregateScores(aggregate, globalAllIndices, mapIndex);
+    private static int[][] toArrays(Map<Integer, List<Integer>> clusterToIndices, int[] ids) {
+        int[][] result = new int[ids.length][];
+        for (int c = 0; c < ids.length; c++) {
+            List<Integer> indices = clusterToIndices.get(ids[c]);
+            result[c] = new int[indices.size()];
+            for (int z = 0; z < result[c].length; z++) {
+                result[c][z] = indices.get(z);
+            }
+        }
+        return result;
     }
 
-    private ShuffledIndices getShuffledByClusterIndices(Map<Integer, List<Integer>> clusterToIndices,
-                                                        Random generator) {
-        List<Integer> allIndices = new ArrayList<>();
-        List<Integer> order = new ArrayList<>(clusterToIndices.keySet());
-        Collections.sort(order);
+    /**
+     * Each cluster's indices are shuffled (same swaps as Collections.shuffle) and truncated
+     * to a multiple of the compression factor; boundaries are in compressed units.
+     */
+    private ShuffledIndices getShuffledByClusterIndices(int[][] clusters, int[] ids, Random generator) {
+        int total = 0;
+        int maxLength = 0;
+        for (int[] indices : clusters) {
+            total += (indices.length / compressionFactor) * compressionFactor;
+            maxLength = Math.max(maxLength, indices.length);
+        }
 
+        int[] allIndices = new int[total];
+        int[] boundaries = new int[ids.length + 1];
+        int[] scratch = new int[maxLength];
         int count = 0;
-        List<Integer> boundaries = new ArrayList<>();
-        boundaries.add(count);
-
-        for (Integer clusterID : order) {
-            List<Integer> indexList = new ArrayList<>(clusterToIndices.get(clusterID));
-            Collections.shuffle(indexList, generator);
-            int numToUse = (indexList.size() / compressionFactor) * compressionFactor;
-            for (int z = 0; z < numToUse; z++) {
-                allIndices.add(indexList.get(z));
-            }
+        int position = 0;
+        for (int c = 0; c < clusters.length; c++) {
+            int length = clusters[c].length;
+            System.arraycopy(clusters[c], 0, scratch, 0, length);
+            shuffle(scratch, length, generator);
+            int numToUse = (length / compressionFactor) * compressionFactor;
+            System.arraycopy(scratch, 0, allIndices, position, numToUse);
+            position += numToUse;
             count += (numToUse / compressionFactor);
-            boundaries.add(count);
+            boundaries[c + 1] = count;
         }
 
-        return new ShuffledIndices(allIndices, boundaries.toArray(new Integer[0]), order.toArray(new Integer[0]));
+        return new ShuffledIndices(allIndices, boundaries, ids);
+    }
+
+    private static void shuffle(int[] array, int length, Random generator) {
+        for (int i = length; i > 1; i--) {
+            int j = generator.nextInt(i);
+            int temp = array[i - 1];
+            array[i - 1] = array[j];
+            array[j] = temp;
+        }
     }
 
-    private double[][] getShuffledMatrix(HiCMatrix interMatrix, List<Integer> allRowIndices, List<Integer> allColIndices) {
-        int numRows = allRowIndices.size() / compressionFactor;
-        int numCols = allColIndices.size() / compressionFactor;
-        int numRowsKept = numRows * compressionFactor;
-        int numColsKept = numCols * compressionFactor;
+    /**
+     * each compressed cell is the sum of a compressionFactor x compressionFactor block;
+     * a row's contributions to one cell are accumulated contiguously before being stored
+     */
+    private double[][] getShuffledMatrix(HiCMatrix interMatrix, int[] allRowIndices, int[] allColIndices) {
+        if (interMatrix.isSparse()) {
+            return getShuffledSparseMatrix(interMatrix, allRowIndices, allColIndices);
+        }
+        int numRows = allRowIndices.length / compressionFactor;
+        int numCols = allColIndices.length / compressionFactor;
         float[][] original = interMatrix.getMatrix();
 
         double[][] result = new double[numRows][numCols];
-        for (int i = 0; i < numRowsKept; i++) {
-            final int i0 = allRowIndices.get(i);
-            for (int j = 0; j < numColsKept; j++) {
-                final int j0 = allColIndices.get(j);
-                result[i / compressionFactor][j / compressionFactor] += original[i0][j0];
+        for (int r = 0; r < numRows; r++) {
+            double[] resultRow = result[r];
+            for (int i = r * compressionFactor; i < (r + 1) * compressionFactor; i++) {
+                float[] row = original[allRowIndices[i]];
+                for (int c = 0; c < numCols; c++) {
+                    double sum = resultRow[c];
+                    for (int j = c * compressionFactor; j < (c + 1) * compressionFactor; j++) {
+                        sum += row[allColIndices[j]];
+                    }
+                    resultRow[c] = sum;
+                }
             }
         }
 
         return result;
     }
+
+    /**
+     * same compressed matrix from the non-zero entries only: columns are translated to their
+     * compressed column (or skipped) instead of being gathered
+     */
+    private double[][] getShuffledSparseMatrix(HiCMatrix interMatrix, int[] allRowIndices, int[] allColIndices) {
+        int numRows = allRowIndices.length / compressionFactor;
+        int numCols = allColIndices.length / compressionFactor;
+        int[] colToCompressed = new int[interMatrix.getNumCols()];
+        Arrays.fill(colToCompressed, -1);
+        for (int j = 0; j < numCols * compressionFactor; j++) {
+            colToCompressed[allColIndices[j]] = j / compressionFactor;
+        }
+
+        RowEntries entries = new RowEntries();
+        double[][] result = new double[numRows][numCols];
+        for (int r = 0; r < numRows; r++) {
+            double[] resultRow = result[r];
+            for (int i = r * compressionFactor; i < (r + 1) * compressionFactor; i++) {
+                interMatrix.getRowEntries(allRowIndices[i], entries);
+                for (int k = 0; k < entries.length; k++) {
+                    int c = colToCompressed[entries.indices[k]];
+                    if (c > -1) {
+                        resultRow[c] += entries.values[k];
+                    }
+                }
+            }
+        }
+        return result;
+    }
 }
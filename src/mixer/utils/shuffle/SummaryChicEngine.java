@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.shuffle;
+
+import mixer.utils.matrix.HiCMatrix;
+import mixer.utils.matrix.RowEntries;
+import mixer.utils.matrix.ShuffledIndices;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compressed shuffled matrices from summary statistics instead of the dense inter matrix.
+ * <p>
+ * Within a block (row cluster a x column cluster b) with total T, row totals R_i and column
+ * totals C_j, write A_ij = R_i * C_j / T + e_ij, which captures the coverage biases. A compressed
+ * cell of cf shuffled rows and cf shuffled columns then sums to R_G * C_H / T + (sum of e_ij),
+ * where R_G and C_H are the summed totals of the group's rows and columns. Two passes over the
+ * non-zero entries store every row's total and squared residual over each column cluster (and
+ * likewise for columns), so the first term is exact per round. Exact compressed sums of randomly
+ * drawn rows cannot come from prefix sums over contiguous ranges, so the residual sum is drawn
+ * instead. Its variance is the rank-1 estimate of the sampled squared residuals, corrected for
+ * sampling without replacement, and its skew follows the block's ratio of cubed to squared
+ * residuals, which keeps low-count cells right-skewed as counts are. A round costs
+ * O(rows * clusters + cols * clusters + cells) instead of O(rows * cols).
+ * <p>
+ * Scores from this engine come from a parametric simulation, not from permutations of the
+ * contacts. Below MIN_COMPRESSION_FACTOR the per-cell draws cost about as much as the exact
+ * shuffle, so ShuffleAction falls back to exact rounds there.
+ */
+public class SummaryChicEngine {
+
+    public static int MIN_COMPRESSION_FACTOR = 16;
+
+    private static final double MIN_SKEW = 1e-3;
+    private final int compressionFactor;
+    private final double[][] rowTotals, colTotals;
+    private final double[][] rowResiduals, colResiduals;
+    private final int[] rowClusterSizes, colClusterSizes;
+    private final double[][] blockTotals, blockResiduals, samplingCorrections;
+    private final double[][] cumulantRatios;
+
+    /**
+     * @param rowClusters matrix row indices of each row cluster, in the order of the shuffle boundaries
+     * @param colClusters matrix column indices of each column cluster, likewise
+     */
+    public SummaryChicEngine(HiCMatrix matrix, int[][] rowClusters, int[][] colClusters, int compressionFactor) {
+        this.compressionFactor = compressionFactor;
+        int numRowClusters = rowClusters.length;
+        int numColClusters = colClusters.length;
+        rowClusterSizes = getSizes(rowClusters);
+        colClusterSizes = getSizes(colClusters);
+
+        int numCols = matrix.getNumCols();
+        int[] colToCluster = new int[numCols];
+        Arrays.fill(colToCluster, -1);
+        for (int b = 0; b < numColClusters; b++) {
+            for (int j : colClusters[b]) {
+                colToCluster[j] = b;
+            }
+        }
+
+        // both passes only visit non-zero entries; column statistics are kept per row cluster
+        // and transposed to per-column arrays at the end
+        RowEntries entries = new RowEntries();
+        rowTotals = new double[matrix.getNumRows()][];
+        double[][] colTotalsByCluster = new double[numRowClusters][numCols];
+        blockTotals = new double[numRowClusters][numColClusters];
+        for (int a = 0; a < numRowClusters; a++) {
+            double[] colSums = colTotalsByCluster[a];
+            for (int i : rowClusters[a]) {
+                matrix.getRowEntries(i, entries);
+                double[] totals = new double[numColClusters];
+                for (int k = 0; k < entries.length; k++) {
+                    int j = entries.indices[k];
+                    int b = colToCluster[j];
+                    if (b < 0) continue;
+                    totals[b] += entries.values[k];
+                    colSums[j] += entries.values[k];
+                }
+                for (int b = 0; b < numColClusters; b++) {
+                    blockTotals[a][b] += totals[b];
+                }
+                rowTotals[i] = totals;
+            }
+        }
+
+        samplingCorrections = new double[numRowClusters][numColClusters];
+        double[][] colSquares = new double[numRowClusters][numColClusters];
+        double[][] colCubes = new double[numRowClusters][numColClusters];
+        for (int a = 0; a < numRowClusters; a++) {
+            for (int b = 0; b < numColClusters; b++) {
+                samplingCorrections[a][b] = getSamplingCorrection(rowClusterSizes[a])
+                        * getSamplingCorrection(colClusterSizes[b]);
+            }
+            for (int j = 0; j < numCols; j++) {
+                int b = colToCluster[j];
+                if (b < 0) continue;
+                double c = colTotalsByCluster[a][j];
+                colSquares[a][b] += c * c;
+                colCubes[a][b] += c * c * c;
+            }
+        }
+
+        // residual e_ij = A_ij - f_i * C_j with f_i = R_i / T; the sums over a block row are
+        // expanded in powers of A_ij so zero entries only enter through colSquares and colCubes
+        rowResiduals = new double[matrix.getNumRows()][];
+        double[][] colResidualsByCluster = new double[numRowClusters][numCols];
+        double[][] colWeightedByCluster = new double[numRowClusters][numCols];
+        double[][] fractionSquares = new double[numRowClusters][numColClusters];
+        blockResiduals = new double[numRowClusters][numColClusters];
+        double[][] blockCubes = new double[numRowClusters][numColClusters];
+        double[] f = new double[numColClusters];
+        double[] a2 = new double[numColClusters], a3 = new double[numColClusters];
+        double[] ac = new double[numColClusters], a2c = new double[numColClusters], ac2 = new double[numColClusters];
+        for (int a = 0; a < numRowClusters; a++) {
+            double[] colSums = colTotalsByCluster[a];
+            double[] colA2 = colResidualsByCluster[a];
+            double[] colFA = colWeightedByCluster[a];
+            for (int i : rowClusters[a]) {
+                matrix.getRowEntries(i, entries);
+                for (int b = 0; b < numColClusters; b++) {
+                    f[b] = blockTotals[a][b] > 0 ? rowTotals[i][b] / blockTotals[a][b] : 0;
+                    fractionSquares[a][b] += f[b] * f[b];
+                }
+                Arrays.fill(a2, 0);
+                Arrays.fill(a3, 0);
+                Arrays.fill(ac, 0);
+                Arrays.fill(a2c, 0);
+                Arrays.fill(ac2, 0);
+                for (int k = 0; k < entries.length; k++) {
+                    int j = entries.indices[k];
+                    int b = colToCluster[j];
+                    if (b < 0) continue;
+                    double v = entries.values[k];
+                    double c = colSums[j];
+                    double v2 = v * v;
+                    a2[b] += v2;
+                    a3[b] += v2 * v;
+                    ac[b] += v * c;
+                    a2c[b] += v2 * c;
+                    ac2[b] += v * c * c;
+                    colA2[j] += v2;
+                    colFA[j] += f[b] * v;
+                }
+                double[] residuals = new double[numColClusters];
+                for (int b = 0; b < numColClusters; b++) {
+                    double fb = f[b];
+                    residuals[b] = Math.max(a2[b] - 2 * fb * ac[b] + fb * fb * colSquares[a][b], 0);
+                    blockResiduals[a][b] += residuals[b];
+                    blockCubes[a][b] += a3[b] - 3 * fb * a2c[b] + 3 * fb * fb * ac2[b]
+                            - fb * fb * fb * colCubes[a][b];
+                }
+                rowResiduals[i] = residuals;
+            }
+            for (int j = 0; j < numCols; j++) {
+                int b = colToCluster[j];
+                if (b < 0) continue;
+                double c = colSums[j];
+                colA2[j] = Math.max(colA2[j] - 2 * c * colFA[j] + c * c * fractionSquares[a][b], 0);
+            }
+        }
+
+        colTotals = transposeColumns(colTotalsByCluster, colToCluster);
+        colResiduals = transposeColumns(colResidualsByCluster, colToCluster);
+
+        cumulantRatios = new double[numRowClusters][numColClusters];
+        for (int a = 0; a < numRowClusters; a++) {
+            for (int b = 0; b < numColClusters; b++) {
+                if (blockResiduals[a][b] > 0) {
+                    cumulantRatios[a][b] = blockCubes[a][b] / blockResiduals[a][b];
+                }
+            }
+        }
+    }
+
+    private static double[][] transposeColumns(double[][] byCluster, int[] colToCluster) {
+        double[][] byColumn = new double[colToCluster.length][];
+        for (int j = 0; j < colToCluster.length; j++) {
+            if (colToCluster[j] < 0) continue;
+            byColumn[j] = new double[byCluster.length];
+            for (int a = 0; a < byCluster.length; a++) {
+                byColumn[j][a] = byCluster[a][j];
+            }
+        }
+        return byColumn;
+    }
+
+    private static int[] getSizes(int[][] clusters) {
+        int[] sizes = new int[clusters.length];
+        for (int k = 0; k < clusters.length; k++) {
+            sizes[k] = clusters[k].length;
+        }
+        return sizes;
+    }
+
+    /**
+     * finite population correction for drawing cf of n indices without replacement
+     */
+    private double getSamplingCorrection(double n) {
+        if (n <= 1) return 0;
+        return Math.max(n - compressionFactor, 0) / (n - 1);
+    }
+
+    /**
+     * same layout and units as the exact compressed matrix: one cell per cf x cf group
+     */
+    public double[][] getCompressedMatrix(ShuffledIndices rows, ShuffledIndices cols, Random generator) {
+        int numRowGroups = rows.allIndices.length / compressionFactor;
+        int numColGroups = cols.allIndices.length / compressionFactor;
+        int[] rowGroupCluster = getGroupClusters(rows.boundaries, numRowGroups);
+        int[] colGroupCluster = getGroupClusters(cols.boundaries, numColGroups);
+        double[][] rowGroupTotals = sumGroups(rows.allIndices, numRowGroups, rowTotals);
+        double[][] colGroupTotals = sumGroups(cols.allIndices, numColGroups, colTotals);
+        double[][] rowGroupResiduals = sumGroups(rows.allIndices, numRowGroups, rowResiduals);
+        double[][] colGroupResiduals = sumGroups(cols.allIndices, numColGroups, colResiduals);
+
+        double[][] result = new double[numRowGroups][numColGroups];
+        for (int r = 0; r < numRowGroups; r++) {
+            int a = rowGroupCluster[r];
+            for (int c = 0; c < numColGroups; c++) {
+                int b = colGroupCluster[c];
+                if (blockTotals[a][b] <= 0) continue;
+                double expected = rowGroupTotals[r][b] * colGroupTotals[c][a] / blockTotals[a][b];
+                double variance = 0;
+                if (blockResiduals[a][b] > 0) {
+                    variance = samplingCorrections[a][b] * rowGroupResiduals[r][b]
+                            * colGroupResiduals[c][a] / blockResiduals[a][b];
+                }
+                result[r][c] = Math.max(expected + nextResidual(variance, cumulantRatios[a][b], generator), 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * zero-mean draw with the given variance and third cumulant variance * ratio: a shifted gamma
+     * when right-skewed (for Poisson counts the ratio is 1), otherwise Gaussian
+     */
+    private static double nextResidual(double variance, double ratio, Random generator) {
+        if (variance <= 0) return 0;
+        double skew = ratio / Math.sqrt(variance);
+        if (skew < MIN_SKEW) {
+            return Math.sqrt(variance) * generator.nextGaussian();
+        }
+        double shape = 4 / (skew * skew);
+        double scale = ratio / 2;
+        return scale * (nextGamma(shape, generator) - shape);
+    }
+
+    /**
+     * Marsaglia-Tsang draw with unit scale; shapes below 1 are boosted by U^(1/shape)
+     */
+    private static double nextGamma(double shape, Random generator) {
+        if (shape < 1) {
+            return nextGamma(shape + 1, generator) * Math.pow(generator.nextDouble(), 1 / shape);
+        }
+        double d = shape - 1.0 / 3;
+        double c = 1 / Math.sqrt(9 * d);
+        while (true) {
+            double x, v;
+            do {
+                x = generator.nextGaussian();
+                v = 1 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = generator.nextDouble();
+            if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))) {
+                return d * v;
+            }
+        }
+    }
+
+    private static int[] getGroupClusters(int[] boundaries, int numGroups) {
+        int[] groupCluster = new int[numGroups];
+        for (int k = 0; k < boundaries.length - 1; k++) {
+            for (int g = boundaries[k]; g < boundaries[k + 1]; g++) {
+                groupCluster[g] = k;
+            }
+        }
+        return groupCluster;
+    }
+
+    private double[][] sumGroups(int[] allIndices, int numGroups, double[][] values) {
+        double[][] groupSums = new double[numGroups][];
+        for (int g = 0; g < numGroups; g++) {
+            double[] sum = new double[values[allIndices[g * compressionFactor]].length];
+            for (int z = g * compressionFactor; z < (g + 1) * compressionFactor; z++) {
+                double[] v = values[allIndices[z]];
+                for (int k = 0; k < sum.length; k++) {
+                    sum[k] += v[k];
+                }
+            }
+            groupSums[g] = sum;
+        }
+        return groupSums;
+    }
+}
@@ -26,61 +26,153 @@ package mixer.utils.shuffle.scoring;
 
 import mixer.utils.matrix.ShuffledIndices;
 
-import java.util.Map;
+import java.util.Arrays;
 
-public abstract class ShuffleScore {
-    protected final float[][] matrix;
-    protected final boolean useSymmetry;
-    protected final Integer[] rBounds, cBounds;
-    protected final Integer[] rIDs, cIDs;
+/**
+ * Variance and KL divergence scores of a matrix split into (row cluster, column cluster) blocks.
+ * One pass over the matrix fills sum / sum of squares / sum of x*log(x) / sum of log(x) / count
+ * for each block; every score variant is then derived from those accumulators by grouping the
+ * blocks: by (row ID, column ID), by the unordered ID pair (symmetric), or all together (baseline).
+ */
+public class ShuffleScore {
+
+    public static final int VAR_SCORE_INDEX = 0;
+    public static final int ENTROPY_SCORE_INDEX = 1;
+    private final boolean matrixIsP;
+    private final int[] rIDs, cIDs;
+    private final int numRowBlocks, numColBlocks;
+    private final double[] sums, squares, xLogXs, logXs;
+    private final long[] counts;
 
-    public ShuffleScore(float[][] matrix, ShuffledIndices rBounds, ShuffledIndices cBounds, boolean useSymmetry) {
-        this.matrix = matrix;
-        this.useSymmetry = useSymmetry;
-        this.rBounds = rBounds.boundaries;
-        this.cBounds = cBounds.boundaries;
+    public ShuffleScore(float[][] matrix, ShuffledIndices rBounds, ShuffledIndices cBounds, boolean matrixIsP) {
+        this.matrixIsP = matrixIsP;
         this.rIDs = rBounds.ids;
         this.cIDs = cBounds.ids;
+        numRowBlocks = rBounds.boundaries.length - 1;
+        numColBlocks = cBounds.boundaries.length - 1;
+        int numBlocks = numRowBlocks * numColBlocks;
+        sums = new double[numBlocks];
+        squares = new double[numBlocks];
+        xLogXs = new double[numBlocks];
+        logXs = new double[numBlocks];
+        counts = new long[numBlocks];
+        accumulate(matrix, rBounds.boundaries, cBounds.boundaries);
     }
 
-    public abstract double score();
-
-    protected String getKey(int rI, int cI) {
-        if (useSymmetry) {
-            int id1 = rIDs[rI];
-            int id2 = cIDs[cI];
-            if (id1 <= id2) return id1 + "_" + id2;
-            return id2 + "_" + id1;
+    private void accumulate(float[][] matrix, int[] rBounds, int[] cBounds) {
+        for (int rI = 0; rI < numRowBlocks; rI++) {
+            for (int i = rBounds[rI]; i < rBounds[rI + 1]; i++) {
+                float[] row = matrix[i];
+                for (int cI = 0; cI < numColBlocks; cI++) {
+                    double sum = 0, square = 0, xLogX = 0, logX = 0;
+                    for (int j = cBounds[cI]; j < cBounds[cI + 1]; j++) {
+                        double x = row[j];
+                        double log = Math.log(x);
+                        sum += x;
+                        square += x * x;
+                        xLogX += x * log;
+                        logX += log;
+                    }
+                    int b = rI * numColBlocks + cI;
+                    sums[b] += sum;
+                    squares[b] += square;
+                    xLogXs[b] += xLogX;
+                    logXs[b] += logX;
+                    counts[b] += cBounds[cI + 1] - cBounds[cI];
+                }
+            }
         }
-        return rIDs[rI] + "_" + cIDs[cI];
     }
 
-    protected long populateSumMap(Map<String, Double> sumMap, Map<String, Long> numRegionMap) {
-        long totalNumElements = 0;
-        sumMap.clear();
-        numRegionMap.clear();
-        for (int rI = 0; rI < rBounds.length - 1; rI++) {
-            for (int cI = 0; cI < cBounds.length - 1; cI++) {
-                double localSum = 0;
-                long localNumElements = 0;
-                for (int i = rBounds[rI]; i < rBounds[rI + 1]; i++) {
-                    for (int j = cBounds[cI]; j < cBounds[cI + 1]; j++) {
-                        localSum += matrix[i][j];
-                        localNumElements++;
-                    }
+    /**
+     * @param isBaseline  treat the whole matrix as a single block
+     * @param useSymmetry blocks (a, b) and (b, a) share one mean
+     * @return {variance score, KL divergence score}
+     */
+    public double[] getScores(boolean isBaseline, boolean useSymmetry) {
+        int[] groupOfBlock = new int[sums.length];
+        int numGroups = 1;
+        if (!isBaseline) {
+            numGroups = useSymmetry ? assignSymmetricGroups(groupOfBlock) : sums.length;
+            if (!useSymmetry) {
+                for (int b = 0; b < groupOfBlock.length; b++) {
+                    groupOfBlock[b] = b;
                 }
+            }
+        }
+
+        double[] groupSums = new double[numGroups];
+        double[] groupSquares = new double[numGroups];
+        double[] groupXLogXs = new double[numGroups];
+        double[] groupLogXs = new double[numGroups];
+        long[] groupCounts = new long[numGroups];
+        for (int b = 0; b < sums.length; b++) {
+            int g = groupOfBlock[b];
+            groupSums[g] += sums[b];
+            groupSquares[g] += squares[b];
+            groupXLogXs[g] += xLogXs[b];
+            groupLogXs[g] += logXs[b];
+            groupCounts[g] += counts[b];
+        }
+
+        double sumTotal = 0;
+        long numElements = 0;
+        for (int g = 0; g < numGroups; g++) {
+            sumTotal += groupSums[g];
+            numElements += groupCounts[g];
+        }
 
-                String key = getKey(rI, cI);
-                if (sumMap.containsKey(key)) {
-                    sumMap.put(key, sumMap.get(key) + localSum);
-                    numRegionMap.put(key, numRegionMap.get(key) + localNumElements);
+        double sumOfSquareErr = 0;
+        double klDivergence = 0;
+        for (int g = 0; g < numGroups; g++) {
+            long n = groupCounts[g];
+            if (n > 0) {
+                double mu = groupSums[g] / n;
+                sumOfSquareErr += groupSquares[g] - groupSums[g] * mu;
+                if (matrixIsP) {
+                    // sum of p log(p / q) with p = x / total, q = mu / total
+                    klDivergence += (groupXLogXs[g] - groupSums[g] * Math.log(mu)) / sumTotal;
                 } else {
-                    sumMap.put(key, localSum);
-                    numRegionMap.put(key, localNumElements);
+                    klDivergence += (mu / sumTotal) * (n * Math.log(mu) - groupLogXs[g]);
+                }
+            }
+        }
+
+        double[] scores = new double[2];
+        scores[VAR_SCORE_INDEX] = sumOfSquareErr / numElements;
+        scores[ENTROPY_SCORE_INDEX] = klDivergence;
+        return scores;
+    }
+
+    /**
+     * group index for the unordered (row ID, column ID) pair of each block
+     */
+    private int assignSymmetricGroups(int[] groupOfBlock) {
+        int[] allIDs = new int[rIDs.length + cIDs.length];
+        System.arraycopy(rIDs, 0, allIDs, 0, rIDs.length);
+        System.arraycopy(cIDs, 0, allIDs, rIDs.length, cIDs.length);
+        Arrays.sort(allIDs);
+        int numIDs = 0;
+        for (int k = 0; k < allIDs.length; k++) {
+            if (k == 0 || allIDs[k] != allIDs[k - 1]) {
+                allIDs[numIDs++] = allIDs[k];
+            }
+        }
+
+        int[] groupIndex = new int[numIDs * numIDs];
+        Arrays.fill(groupIndex, -1);
+        int numGroups = 0;
+        for (int rI = 0; rI < numRowBlocks; rI++) {
+            int u1 = Arrays.binarySearch(allIDs, 0, numIDs, rIDs[rI]);
+            for (int cI = 0; cI < numColBlocks; cI++) {
+                int u2 = Arrays.binarySearch(allIDs, 0, numIDs, cIDs[cI]);
+                int key = Math.min(u1, u2) * numIDs + Math.max(u1, u2);
+                if (groupIndex[key] < 0) {
+                    groupIndex[key] = numGroups++;
                 }
-                totalNumElements += localNumElements;
+                groupOfBlock[rI * numColBlocks + cI] = groupIndex[key];
             }
         }
-        return totalNumElements;
+        return numGroups;
     }
 }
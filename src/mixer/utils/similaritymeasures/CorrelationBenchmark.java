@@ -0,0 +1,162 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package mixer.utils.similaritymeasures;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Timing for the correlation kernels against the old two-pass version
+ * (a BitSet of the jointly non-NaN entries, then a centered pass over them)
+ * Basically scratch space; usage: CorrelationBenchmark [numRows] [numCols] [nanFraction]
+ */
+@SuppressWarnings({"UnusedAssignment", "unused"})
+public class CorrelationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TIMED_ROUNDS = 10;
+    private static final int NUM_CENTROIDS = 8;
+
+    public static void main(String[] argv) {
+        int numRows = argv.length > 0 ? Integer.parseInt(argv[0]) : 2000;
+        int numCols = argv.length > 1 ? Integer.parseInt(argv[1]) : 1000;
+        double nanFraction = argv.length > 2 ? Double.parseDouble(argv[2]) : 0.1;
+
+        float[][] matrix = generate(numRows, numCols, nanFraction, new Random(0));
+        float[][] centroids = generate(NUM_CENTROIDS, numCols, 0, new Random(1));
+
+        System.out.println("rows: " + numRows + " cols: " + numCols + " nan fraction: " + nanFraction);
+        System.out.println("max |two-pass - distance|: " + maxDifference(matrix));
+        report("two-pass", () -> runTwoPass(matrix, centroids));
+        report("distance", () -> runDistance(matrix, centroids));
+        report("distances", () -> runDistances(matrix, centroids));
+    }
+
+    private interface Kernel {
+        double run();
+    }
+
+    private static void report(String name, Kernel kernel) {
+        double check = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            check += kernel.run();
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < TIMED_ROUNDS; r++) {
+            check += kernel.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / TIMED_ROUNDS;
+        System.out.printf("%-10s %10.3f ms/round (checksum %.3f)%n", name, millis, check);
+    }
+
+    private static double runTwoPass(float[][] matrix, float[][] centroids) {
+        double total = 0;
+        for (float[] row : matrix) {
+            for (float[] centroid : centroids) {
+                total += twoPass(centroid, row);
+            }
+        }
+        return total;
+    }
+
+    private static double runDistance(float[][] matrix, float[][] centroids) {
+        RobustCorrelationSimilarity metric = RobustCorrelationSimilarity.SINGLETON;
+        double total = 0;
+        for (float[] row : matrix) {
+            for (float[] centroid : centroids) {
+                total += metric.distance(centroid, row);
+            }
+        }
+        return total;
+    }
+
+    private static double runDistances(float[][] matrix, float[][] centroids) {
+        RobustCorrelationSimilarity metric = RobustCorrelationSimilarity.SINGLETON;
+        float[] out = new float[centroids.length];
+        double total = 0;
+        for (float[] row : matrix) {
+            metric.distances(row, centroids, out);
+            for (float val : out) {
+                total += val;
+            }
+        }
+        return total;
+    }
+
+    private static double maxDifference(float[][] matrix) {
+        double maxDiff = 0;
+        for (int i = 1; i < matrix.length; i++) {
+            double diff = Math.abs(twoPass(matrix[i - 1], matrix[i])
+                    - RobustCorrelationSimilarity.SINGLETON.distance(matrix[i - 1], matrix[i]));
+            if (!Double.isNaN(diff)) {
+                maxDiff = Math.max(maxDiff, diff);
+            }
+        }
+        return maxDiff;
+    }
+
+    private static float[][] generate(int numRows, int numCols, double nanFraction, Random generator) {
+        float[][] matrix = new float[numRows][numCols];
+        for (int i = 0; i < numRows; i++) {
+            double offset = 1000 * generator.nextDouble();
+            for (int k = 0; k < numCols; k++) {
+                matrix[i][k] = generator.nextDouble() < nanFraction ? Float.NaN
+                        : (float) (offset + generator.nextGaussian());
+            }
+        }
+        return matrix;
+    }
+
+    private static float twoPass(float[] x, float[] y) {
+        double sumX = 0;
+        double sumY = 0;
+        BitSet useIndex = new BitSet(x.length);
+        for (int i = 0; i < x.length; i++) {
+            if (!Float.isNaN(x[i] + y[i])) {
+                sumX += x[i];
+                sumY += y[i];
+                useIndex.set(i);
+            }
+        }
+
+        int counter = useIndex.cardinality();
+        double muX = sumX / counter;
+        double muY = sumY / counter;
+
+        double dotProduct = 0.0;
+        double normX = 0.0;
+        double normY = 0.0;
+        for (int i = 0; i < x.length; i++) {
+            if (useIndex.get(i)) {
+                double nX = x[i] - muX;
+                double nY = y[i] - muY;
+
+                dotProduct += nX * nY;
+                normX += nX * nX;
+                normY += nY * nY;
+            }
+        }
+        return (float) (dotProduct / Math.sqrt(normX * normY));
+    }
+}
@@ -23,8 +23,6 @@
  */
 package mixer.utils.similaritymeasures;
 
-import java.util.BitSet;
-
 /**
  * Correlation distance.
  */
@@ -40,36 +38,101 @@ public final class RobustCorrelationSimilarity extends SimilarityMetric {
         super(true);
     }
 
+    /**
+     * one pass over the jointly non-NaN entries; the sums are taken about the first such x and y
+     * so that the moments in fromSums do not cancel (a constant overlap stays NaN)
+     */
     @Override
     public float distance(final float[] x, final float[] y) {
-        double sumX = 0;
-        double sumY = 0;
-        BitSet useIndex = new BitSet(x.length);
+        double x0 = 0, y0 = 0;
+        double sumX = 0, sumY = 0;
+        double sumXX = 0, sumYY = 0, sumXY = 0;
+        int counter = 0;
         for (int i = 0; i < x.length; i++) {
-            if (!Float.isNaN(x[i] + y[i])) {
-                sumX += x[i];
-                sumY += y[i];
-                useIndex.set(i);
+            final float xi = x[i];
+            final float yi = y[i];
+            if (!Float.isNaN(xi + yi)) {
+                if (counter == 0) {
+                    x0 = xi;
+                    y0 = yi;
+                }
+                final double dx = xi - x0;
+                final double dy = yi - y0;
+                sumX += dx;
+                sumY += dy;
+                sumXX += dx * dx;
+                sumYY += dy * dy;
+                sumXY += dx * dy;
+                counter++;
             }
         }
+        return fromSums(counter, sumX, sumY, sumXX, sumYY, sumXY);
+    }
 
-        int counter = useIndex.cardinality();
-        double muX = sumX / counter;
-        double muY = sumY / counter;
-
-        double dotProduct = 0.0;
-        double normX = 0.0;
-        double normY = 0.0;
-        for (int i = 0; i < x.length; i++) {
-            if (useIndex.get(i)) {
-                double nX = x[i] - muX;
-                double nY = y[i] - muY;
-
-                dotProduct += nX * nY;
-                normX += nX * nX;
-                normY += nY * nY;
+    /**
+     * centroids are taken two at a time so each entry of x is read once per pair;
+     * each pair keeps its own shift, as in distance
+     */
+    @Override
+    public void distances(final float[] x, final float[][] centroids, final float[] out) {
+        int j = 0;
+        for (; j < centroids.length - 1; j += 2) {
+            final float[] y = centroids[j];
+            final float[] z = centroids[j + 1];
+            double xa0 = 0, y0 = 0, xb0 = 0, z0 = 0;
+            double sumXa = 0, sumY = 0, sumXXa = 0, sumYY = 0, sumXY = 0;
+            double sumXb = 0, sumZ = 0, sumXXb = 0, sumZZ = 0, sumXZ = 0;
+            int countA = 0, countB = 0;
+            for (int i = 0; i < x.length; i++) {
+                final float xi = x[i];
+                final float yi = y[i];
+                final float zi = z[i];
+                if (!Float.isNaN(xi + yi)) {
+                    if (countA == 0) {
+                        xa0 = xi;
+                        y0 = yi;
+                    }
+                    final double dx = xi - xa0;
+                    final double dy = yi - y0;
+                    sumXa += dx;
+                    sumY += dy;
+                    sumXXa += dx * dx;
+                    sumYY += dy * dy;
+                    sumXY += dx * dy;
+                    countA++;
+                }
+                if (!Float.isNaN(xi + zi)) {
+                    if (countB == 0) {
+                        xb0 = xi;
+                        z0 = zi;
+                    }
+                    final double dx = xi - xb0;
+                    final double dz = zi - z0;
+                    sumXb += dx;
+                    sumZ += dz;
+                    sumXXb += dx * dx;
+                    sumZZ += dz * dz;
+                    sumXZ += dx * dz;
+                    countB++;
+                }
             }
+            out[j] = fromSums(countA, sumY, sumXa, sumYY, sumXXa, sumXY);
+            out[j + 1] = fromSums(countB, sumZ, sumXb, sumZZ, sumXXb, sumXZ);
         }
+        if (j < centroids.length) {
+            out[j] = distance(centroids[j], x);
+        }
+    }
+
+    /**
+     * correlation from sums over the jointly non-NaN entries; raw sums cancel badly, so x and y
+     * should already be centered or shifted by a value near their means (e.g. a sample of each)
+     */
+    public static float fromSums(int counter, double sumX, double sumY,
+                                 double sumXX, double sumYY, double sumXY) {
+        double dotProduct = sumXY - sumX * sumY / counter;
+        double normX = sumXX - sumX * sumX / counter;
+        double normY = sumYY - sumY * sumY / counter;
 
         double answer = dotProduct / Math.sqrt(normX * normY);
         if (USE_ARC) {
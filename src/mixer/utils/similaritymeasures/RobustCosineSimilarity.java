@@ -35,6 +35,72 @@ public final class RobustCosineSimilarity extends SimilarityMetric {
 
   @Override
   public float distance(final float[] x, final float[] y) {
+    double answer;
+    if (USE_UNROLLED_KERNELS && x.length >= MIN_UNROLLED_LENGTH) {
+      answer = getCosineUnrolled(x, y);
+    } else {
+      answer = getCosine(x, y);
+    }
+    return fromAnswer(answer);
+  }
+
+  /**
+   * When the row has no NaNs, only the centroid entries need checking; centroids are taken two
+   * at a time to share the row reads.
+   */
+  @Override
+  public void distances(final float[] x, final float[][] centroids, final float[] out) {
+    for (float xk : x) {
+      if (Float.isNaN(xk)) {
+        super.distances(x, centroids, out);
+        return;
+      }
+    }
+
+    int j = 0;
+    for (; j < centroids.length - 1; j += 2) {
+      final float[] y = centroids[j];
+      final float[] z = centroids[j + 1];
+      double dotY = 0, normY = 1e-100, normXY = 1e-100;
+      double dotZ = 0, normZ = 1e-100, normXZ = 1e-100;
+      for (int k = 0; k < x.length; k++) {
+        final float xk = x[k];
+        final float yk = y[k];
+        final float zk = z[k];
+        if (yk == yk) {
+          dotY += xk * yk;
+          normY += yk * yk;
+          normXY += xk * xk;
+        }
+        if (zk == zk) {
+          dotZ += xk * zk;
+          normZ += zk * zk;
+          normXZ += xk * xk;
+        }
+      }
+      out[j] = fromSums(dotY, normXY, normY);
+      out[j + 1] = fromSums(dotZ, normXZ, normZ);
+    }
+    if (j < centroids.length) {
+      out[j] = distance(centroids[j], x);
+    }
+  }
+
+  /**
+   * cosine from the dot product and the squared norms over the jointly non-NaN entries
+   */
+  public static float fromSums(double dotProduct, double normX, double normY) {
+    return fromAnswer(dotProduct / Math.sqrt(normX * normY));
+  }
+
+  private static float fromAnswer(double answer) {
+    if (USE_ARC) {
+      return arctanh(answer);
+    }
+    return (float) answer;
+  }
+
+  private double getCosine(final float[] x, final float[] y) {
     double dotProduct = 0.0;
     double normX = 1e-100;
     double normY = 1e-100;
@@ -46,11 +112,36 @@ public final class RobustCosineSimilarity extends SimilarityMetric {
         normY += y[i] * y[i];
       }
     }
+    return dotProduct / Math.sqrt(normX * normY);
+  }
 
-    double answer = dotProduct / Math.sqrt(normX * normY);
-    if (USE_ARC) {
-      return arctanh(answer);
+  private double getCosineUnrolled(final float[] x, final float[] y) {
+    double dot0 = 0, dot1 = 0;
+    double nx0 = 1e-100, nx1 = 0;
+    double ny0 = 1e-100, ny1 = 0;
+    int i = 0;
+    for (; i < x.length - 1; i += 2) {
+      final float p0 = x[i] * y[i];
+      final float p1 = x[i + 1] * y[i + 1];
+      if (p0 == p0) {
+        dot0 += p0;
+        nx0 += x[i] * x[i];
+        ny0 += y[i] * y[i];
+      }
+      if (p1 == p1) {
+        dot1 += p1;
+        nx1 += x[i + 1] * x[i + 1];
+        ny1 += y[i + 1] * y[i + 1];
+      }
     }
-    return (float) answer;
+    if (i < x.length) {
+      final float p = x[i] * y[i];
+      if (p == p) {
+        dot0 += p;
+        nx0 += x[i] * x[i];
+        ny0 += y[i] * y[i];
+      }
+    }
+    return (dot0 + dot1) / Math.sqrt((nx0 + nx1) * (ny0 + ny1));
   }
 }
@@ -44,6 +44,9 @@ public final class RobustEuclideanDistance extends SimilarityMetric {
   }
 
   public static double getNonNanMeanSquaredError(float[] x, float[] y) {
+    if (USE_UNROLLED_KERNELS && x.length >= MIN_UNROLLED_LENGTH) {
+      return getNonNanMeanSquaredErrorUnrolled(x, y);
+    }
     double sumOfSquares = 0;
     int numVals = 0;
     for (int i = 0; i < x.length; i++) {
@@ -59,4 +62,44 @@ public final class RobustEuclideanDistance extends SimilarityMetric {
     }
     return x.length * sumOfSquares / numVals;
   }
+
+  private static double getNonNanMeanSquaredErrorUnrolled(float[] x, float[] y) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int n0 = 0, n1 = 0, n2 = 0, n3 = 0;
+    int i = 0;
+    for (; i < x.length - 3; i += 4) {
+      final float v0 = x[i] - y[i];
+      final float v1 = x[i + 1] - y[i + 1];
+      final float v2 = x[i + 2] - y[i + 2];
+      final float v3 = x[i + 3] - y[i + 3];
+      if (v0 == v0) {
+        s0 += v0 * v0;
+        n0++;
+      }
+      if (v1 == v1) {
+        s1 += v1 * v1;
+        n1++;
+      }
+      if (v2 == v2) {
+        s2 += v2 * v2;
+        n2++;
+      }
+      if (v3 == v3) {
+        s3 += v3 * v3;
+        n3++;
+      }
+    }
+    for (; i < x.length; i++) {
+      final float v = x[i] - y[i];
+      if (v == v) {
+        s0 += v * v;
+        n0++;
+      }
+    }
+    int numVals = n0 + n1 + n2 + n3;
+    if (numVals < 1) {
+      return Float.MAX_VALUE;
+    }
+    return x.length * (s0 + s1 + s2 + s3) / numVals;
+  }
 }
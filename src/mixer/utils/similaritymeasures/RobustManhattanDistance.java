@@ -46,6 +46,9 @@ public final class RobustManhattanDistance extends SimilarityMetric {
   }
 
   private double getNonNanMeanAbsoluteError(float[] x, float[] y) {
+    if (USE_UNROLLED_KERNELS && x.length >= MIN_UNROLLED_LENGTH) {
+      return getNonNanMeanAbsoluteErrorUnrolled(x, y);
+    }
     double sumOfError = 0;
     int numDiffs = 0;
     for (int i = 0; i < x.length; i++) {
@@ -61,4 +64,44 @@ public final class RobustManhattanDistance extends SimilarityMetric {
     }
     return sumOfError / numDiffs;
   }
+
+  private double getNonNanMeanAbsoluteErrorUnrolled(float[] x, float[] y) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int n0 = 0, n1 = 0, n2 = 0, n3 = 0;
+    int i = 0;
+    for (; i < x.length - 3; i += 4) {
+      final float d0 = x[i] - y[i];
+      final float d1 = x[i + 1] - y[i + 1];
+      final float d2 = x[i + 2] - y[i + 2];
+      final float d3 = x[i + 3] - y[i + 3];
+      if (d0 == d0) {
+        s0 += Math.abs(d0);
+        n0++;
+      }
+      if (d1 == d1) {
+        s1 += Math.abs(d1);
+        n1++;
+      }
+      if (d2 == d2) {
+        s2 += Math.abs(d2);
+        n2++;
+      }
+      if (d3 == d3) {
+        s3 += Math.abs(d3);
+        n3++;
+      }
+    }
+    for (; i < x.length; i++) {
+      final float d = x[i] - y[i];
+      if (d == d) {
+        s0 += Math.abs(d);
+        n0++;
+      }
+    }
+    int numDiffs = n0 + n1 + n2 + n3;
+    if (numDiffs < 1) {
+      return Float.MAX_VALUE;
+    }
+    return (s0 + s1 + s2 + s3) / numDiffs;
+  }
 }
@@ -26,6 +26,13 @@ package mixer.utils.similaritymeasures;
 
 
 public abstract class SimilarityMetric {
+    /**
+     * the robust metrics use unrolled loops with independent accumulators for vectors of
+     * at least MIN_UNROLLED_LENGTH entries (4-way for Euclidean and Manhattan, 2-way for cosine,
+     * which keeps three sums per lane); false forces the plain loops
+     */
+    public static boolean USE_UNROLLED_KERNELS = true;
+    protected static final int MIN_UNROLLED_LENGTH = 16;
     private final boolean mIsSymmmetric;
 
     public SimilarityMetric(boolean isSymmmetric) {
@@ -38,6 +45,15 @@ public abstract class SimilarityMetric {
 
     abstract public float distance(final float[] x, final float[] y);
 
+    /**
+     * out[j] = distance(centroids[j], row); metrics override this to share work across centroids
+     */
+    public void distances(final float[] row, final float[][] centroids, final float[] out) {
+        for (int j = 0; j < centroids.length; j++) {
+            out[j] = distance(centroids[j], row);
+        }
+    }
+
     protected static float arctanh(double x) {
         float val = (float) Math.max(x, -.99f);
         val = Math.min(val, .99f);
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package mixer.utils.similaritymeasures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the unrolled kernels with the scalar ones (USE_UNROLLED_KERNELS off) on random
+ * vectors with NaNs, at lengths around MIN_UNROLLED_LENGTH and every unroll remainder.
+ * Basically scratch space; exits with 1 if any metric disagrees.
+ */
+@SuppressWarnings({"UnusedAssignment", "unused"})
+public class UnrolledKernelCheck {
+
+    private static final int TRIALS_PER_LENGTH = 500;
+    private static final double RELATIVE_TOLERANCE = 1e-5;
+    private static final SimilarityMetric[] METRICS = {RobustEuclideanDistance.SINGLETON,
+            RobustManhattanDistance.SINGLETON, RobustCosineSimilarity.SINGLETON};
+
+    public static void main(String[] argv) {
+        Random generator = new Random(argv.length > 0 ? Long.parseLong(argv[0]) : 0);
+        int numFailures = 0;
+        for (int length : getLengths()) {
+            for (int t = 0; t < TRIALS_PER_LENGTH; t++) {
+                float[] x = generate(length, t, generator);
+                float[] y = generate(length, t + 1, generator);
+                for (SimilarityMetric metric : METRICS) {
+                    if (!agrees(metric, x, y)) {
+                        numFailures++;
+                    }
+                }
+            }
+        }
+        System.out.println(numFailures == 0 ? "unrolled kernels agree" : numFailures + " mismatches");
+        if (numFailures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * every length from 4 below to 4 above MIN_UNROLLED_LENGTH, then each remainder mod 4 for
+     * longer rows
+     */
+    private static List<Integer> getLengths() {
+        List<Integer> lengths = new ArrayList<>();
+        int minLength = SimilarityMetric.MIN_UNROLLED_LENGTH;
+        for (int length = minLength - 4; length <= minLength + 4; length++) {
+            lengths.add(length);
+        }
+        for (int base : new int[]{64, 1000}) {
+            for (int r = 1; r <= 3; r++) {
+                lengths.add(base + r);
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * cycles through no NaNs, scattered NaNs, NaNs only in the tail the unrolled loop leaves to
+     * its remainder, and (almost) all NaNs
+     */
+    private static float[] generate(int length, int pattern, Random generator) {
+        float[] vector = new float[length];
+        double scale = generator.nextBoolean() ? 1 : 1e4;
+        for (int k = 0; k < length; k++) {
+            vector[k] = (float) (scale * generator.nextGaussian());
+        }
+        switch (pattern % 4) {
+            case 1:
+                for (int k = 0; k < length; k++) {
+                    if (generator.nextDouble() < 0.3) vector[k] = Float.NaN;
+                }
+                break;
+            case 2:
+                for (int k = length - length % 4; k < length; k++) {
+                    vector[k] = Float.NaN;
+                }
+                break;
+            case 3:
+                for (int k = 0; k < length; k++) {
+                    if (generator.nextDouble() < 0.95) vector[k] = Float.NaN;
+                }
+                break;
+            default:
+                break;
+        }
+        return vector;
+    }
+
+    private static boolean agrees(SimilarityMetric metric, float[] x, float[] y) {
+        boolean useUnrolled = SimilarityMetric.USE_UNROLLED_KERNELS;
+        SimilarityMetric.USE_UNROLLED_KERNELS = true;
+        float unrolled = metric.distance(x, y);
+        SimilarityMetric.USE_UNROLLED_KERNELS = false;
+        float scalar = metric.distance(x, y);
+        SimilarityMetric.USE_UNROLLED_KERNELS = useUnrolled;
+
+        // no overlap gives NaN for cosine and the Float.MAX_VALUE sentinel (times length) otherwise
+        if (unrolled == scalar || (Float.isNaN(unrolled) && Float.isNaN(scalar))) {
+            return true;
+        }
+        if (Math.abs(unrolled - scalar) <= RELATIVE_TOLERANCE * Math.max(1, Math.abs(scalar))) {
+            return true;
+        }
+        System.err.println(metric.getClass().getSimpleName() + " length " + x.length
+                + ": unrolled " + unrolled + " vs scalar " + scalar);
+        return false;
+    }
+}
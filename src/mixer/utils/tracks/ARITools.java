@@ -42,6 +42,21 @@ public class ARITools {
             }
         }
 
+        return getARI(summary);
+    }
+
+    /**
+     * ARI between two labelings of the same rows (labels are 0..k-1)
+     */
+    public static double getARI(int[] assignments1, int[] assignments2) {
+        int[][] summary = new int[max(assignments1) + 1][max(assignments2) + 1];
+        for (int i = 0; i < assignments1.length; i++) {
+            summary[assignments1[i]][assignments2[i]]++;
+        }
+        return getARI(summary);
+    }
+
+    private static double getARI(int[][] summary) {
         int[] rowsSums = sumRows(summary);
         int[] colsSums = sumCols(summary);
         int n = Concensus2DTools.sum(summary);
@@ -96,6 +111,14 @@ public class ARITools {
         return sums;
     }
 
+    private static int max(int[] array) {
+        int max = 0;
+        for (int val : array) {
+            max = Math.max(max, val);
+        }
+        return max;
+    }
+
     private static double comb2(double n) {
         return (n * (n - 1)) / 2.0;
     }
@@ -0,0 +1,241 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2023 Rice University, Baylor College of Medicine, Aiden Lab
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package mixer.utils.transform;
+
+import javastraw.tools.ParallelizationTools;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Randomized SVD (range finder with power iterations) for projecting rows onto
+ * their top principal components. Columns are centered on their non-NaN means and
+ * NaN entries are treated as the column mean, so they add nothing to the projection.
+ */
+public class RandomizedSVD {
+
+    private static final int OVERSAMPLES = 10;
+    private static final int POWER_ITERATIONS = 2;
+    private static final int COLS_PER_TASK = 64;
+
+    /**
+     * @return n x numComponents matrix of principal component scores
+     */
+    public static float[][] projectOntoTopComponents(float[][] matrix, int numComponents, long seed) {
+        int n = matrix.length;
+        int m = matrix[0].length;
+        numComponents = Math.min(numComponents, Math.min(n, m));
+        int l = Math.min(numComponents + OVERSAMPLES, Math.min(n, m));
+
+        double[] means = getColumnNanMeans(matrix);
+        double[][] omega = new double[m][l];
+        Random generator = new Random(seed);
+        for (double[] row : omega) {
+            for (int k = 0; k < l; k++) {
+                row[k] = generator.nextGaussian();
+            }
+        }
+
+        double[][] q = multiply(matrix, means, omega);
+        orthonormalizeColumns(q);
+        for (int p = 0; p < POWER_ITERATIONS; p++) {
+            double[][] z = transposeMultiply(matrix, means, q);
+            orthonormalizeColumns(z);
+            q = multiply(matrix, means, z);
+            orthonormalizeColumns(q);
+        }
+
+        // B = Q^T A, so B B^T = Z^T Z with Z = A^T Q
+        double[][] z = transposeMultiply(matrix, means, q);
+        RealMatrix zMatrix = MatrixUtils.createRealMatrix(z);
+        EigenDecomposition ed = new EigenDecomposition(zMatrix.transpose().multiply(zMatrix));
+        double[] eigenvalues = ed.getRealEigenvalues();
+        Integer[] order = new Integer[l];
+        for (int k = 0; k < l; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(eigenvalues[b], eigenvalues[a]));
+
+        // scores = A V = Q U_B Sigma
+        double[][] uSigma = new double[l][numComponents];
+        for (int c = 0; c < numComponents; c++) {
+            double sigma = Math.sqrt(Math.max(eigenvalues[order[c]], 0));
+            double[] u = ed.getEigenvector(order[c]).toArray();
+            for (int k = 0; k < l; k++) {
+                uSigma[k][c] = u[k] * sigma;
+            }
+        }
+        float[][] scores = new float[n][numComponents];
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < numComponents; c++) {
+                double accum = 0;
+                for (int k = 0; k < l; k++) {
+                    accum += q[i][k] * uSigma[k][c];
+                }
+                scores[i][c] = (float) accum;
+            }
+        }
+
+        logExplainedVariance(eigenvalues, order, numComponents, getTotalSumOfSquares(matrix, means));
+        return scores;
+    }
+
+    private static void logExplainedVariance(double[] eigenvalues, Integer[] order, int numComponents,
+                                             double totalSumOfSquares) {
+        double explained = 0;
+        StringBuilder perComponent = new StringBuilder();
+        for (int c = 0; c < numComponents; c++) {
+            double fraction = Math.max(eigenvalues[order[c]], 0) / totalSumOfSquares;
+            explained += fraction;
+            if (c < 10) {
+                perComponent.append(String.format(" %.3f", fraction));
+            }
+        }
+        System.out.println("PCA: top " + numComponents + " components explain "
+                + String.format("%.2f", 100 * explained) + "% of variance; leading:" + perComponent);
+    }
+
+    private static double[] getColumnNanMeans(float[][] matrix) {
+        double[] sums = new double[matrix[0].length];
+        int[] counts = new int[matrix[0].length];
+        for (float[] row : matrix) {
+            for (int j = 0; j < row.length; j++) {
+                if (!Float.isNaN(row[j])) {
+                    sums[j] += row[j];
+                    counts[j]++;
+                }
+            }
+        }
+        for (int j = 0; j < sums.length; j++) {
+            if (counts[j] > 0) {
+                sums[j] /= counts[j];
+            }
+        }
+        return sums;
+    }
+
+    private static double getTotalSumOfSquares(float[][] matrix, double[] means) {
+        double total = 0;
+        for (float[] row : matrix) {
+            for (int j = 0; j < row.length; j++) {
+                if (!Float.isNaN(row[j])) {
+                    double v = row[j] - means[j];
+                    total += v * v;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * (A - means) * right, with NaN entries of A counting as zero after centering
+     */
+    private static double[][] multiply(float[][] matrix, double[] means, double[][] right) {
+        int l = right[0].length;
+        double[][] result = new double[matrix.length][l];
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int i = index.getAndIncrement();
+            while (i < matrix.length) {
+                float[] row = matrix[i];
+                double[] out = result[i];
+                for (int j = 0; j < row.length; j++) {
+                    if (!Float.isNaN(row[j])) {
+                        double v = row[j] - means[j];
+                        double[] r = right[j];
+                        for (int k = 0; k < l; k++) {
+                            out[k] += v * r[k];
+                        }
+                    }
+                }
+                i = index.getAndIncrement();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * (A - means)^T * right, split into column ranges so each thread owns its output rows
+     */
+    private static double[][] transposeMultiply(float[][] matrix, double[] means, double[][] right) {
+        int m = matrix[0].length;
+        int l = right[0].length;
+        double[][] result = new double[m][l];
+        int numTasks = (m + COLS_PER_TASK - 1) / COLS_PER_TASK;
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(() -> {
+            int t = index.getAndIncrement();
+            while (t < numTasks) {
+                int start = t * COLS_PER_TASK;
+                int end = Math.min(start + COLS_PER_TASK, m);
+                for (int i = 0; i < matrix.length; i++) {
+                    float[] row = matrix[i];
+                    double[] r = right[i];
+                    for (int j = start; j < end; j++) {
+                        if (!Float.isNaN(row[j])) {
+                            double v = row[j] - means[j];
+                            double[] out = result[j];
+                            for (int k = 0; k < l; k++) {
+                                out[k] += v * r[k];
+                            }
+                        }
+                    }
+                }
+                t = index.getAndIncrement();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Modified Gram-Schmidt on the columns of a tall matrix
+     */
+    private static void orthonormalizeColumns(double[][] matrix) {
+        int l = matrix[0].length;
+        for (int k = 0; k < l; k++) {
+            for (int p = 0; p < k; p++) {
+                double dot = 0;
+                for (double[] row : matrix) {
+                    dot += row[k] * row[p];
+                }
+                for (double[] row : matrix) {
+                    row[k] -= dot * row[p];
+                }
+            }
+            double norm = 0;
+            for (double[] row : matrix) {
+                norm += row[k] * row[k];
+            }
+            norm = Math.sqrt(norm);
+            for (double[] row : matrix) {
+                row[k] = norm > 0 ? row[k] / norm : 0;
+            }
+        }
+    }
+}